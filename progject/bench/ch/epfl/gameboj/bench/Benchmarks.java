@@ -0,0 +1,275 @@
+package ch.epfl.gameboj.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.bits.BitVector;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.cpu.Cpu;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdController.RenderPolicy;
+import ch.epfl.gameboj.component.lcd.LcdImageLine;
+import ch.epfl.gameboj.component.memory.Ram;
+import ch.epfl.gameboj.component.memory.RamController;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Mesure le débit et l'allocation des parties les plus sollicitées de
+ *         la simulation : processeur, bus, contrôleur de l'écran, vecteurs de
+ *         bits, lignes de l'écran, image complète et sauvegarde de l'état.
+ *
+ *         Les mesures dont le nom contient l'expression régulière donnée en
+ *         argument sont seules exécutées.
+ */
+public final class Benchmarks {
+
+    private static final int LCDC = 0xFF40, SCY = 0xFF42, SCX = 0xFF43,
+            BGP = 0xFF47, OBP0 = 0xFF48, OBP1 = 0xFF49, WY = 0xFF4A,
+            WX = 0xFF4B;
+    private static final int LINE_CYCLES = 114;
+    private static final int LINE_WIDTH = 160;
+    private static final int BOOT_FRAMES = 120;
+    private static final long SEED = 2018;
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Lance les mesures
+     *
+     * @param args
+     *            éventuellement l'expression régulière qui choisit les mesures
+     *            à lancer
+     */
+    public static void main(String[] args) {
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : "");
+        Harness harness = new Harness(2000, 1000, 5);
+
+        Map<String, Supplier<Harness.Op>> benchmarks = new LinkedHashMap<>();
+        benchmarks.put("Cpu.dispatch alu", () -> cpu(SyntheticRom.ALU_BLOCK));
+        benchmarks.put("Cpu.dispatch load", () -> cpu(SyntheticRom.LOAD_BLOCK));
+        benchmarks.put("Cpu.dispatch prefixed",
+                () -> cpu(SyntheticRom.PREFIXED_BLOCK));
+        benchmarks.put("Cpu.dispatch control",
+                () -> cpu(SyntheticRom.CONTROL_BLOCK));
+        benchmarks.put("Bus.read", Benchmarks::busRead);
+        benchmarks.put("Bus.write", Benchmarks::busWrite);
+        benchmarks.put("LcdController.computeLine", Benchmarks::lcdLine);
+        benchmarks.put("BitVector.and", () -> {
+            BitVector[] v = vectors(2);
+            return () -> v[0].and(v[1]).testBit(3) ? 1 : 0;
+        });
+        benchmarks.put("BitVector.or", () -> {
+            BitVector[] v = vectors(2);
+            return () -> v[0].or(v[1]).testBit(3) ? 1 : 0;
+        });
+        benchmarks.put("BitVector.not", () -> {
+            BitVector[] v = vectors(1);
+            return () -> v[0].not().testBit(3) ? 1 : 0;
+        });
+        benchmarks.put("BitVector.extractWrapped", () -> {
+            BitVector[] v = vectors(1);
+            return () -> v[0].extractWrapped(37, LINE_WIDTH).testBit(3) ? 1
+                    : 0;
+        });
+        benchmarks.put("LcdImageLine.mapColors", () -> {
+            LcdImageLine[] l = lines(1);
+            return () -> l[0].mapColors(0b00_01_10_11).msb().testBit(5) ? 1
+                    : 0;
+        });
+        benchmarks.put("LcdImageLine.below", () -> {
+            LcdImageLine[] l = lines(2);
+            return () -> l[0].below(l[1]).msb().testBit(5) ? 1 : 0;
+        });
+        benchmarks.put("GameBoy.runUntil frame",
+                () -> frame(RenderPolicy.EVERY_FRAME));
+        benchmarks.put("GameBoy.runUntil unrendered",
+                () -> frame(RenderPolicy.NEVER));
+        benchmarks.put("GameBoy.snapshot", () -> {
+            GameBoy gb = gameBoy(BOOT_FRAMES);
+            ByteBuffer buffer = ByteBuffer.allocate(gb.snapshotSize());
+            return () -> {
+                buffer.clear();
+                gb.snapshot(buffer);
+                return buffer.position();
+            };
+        });
+        benchmarks.put("GameBoy.restore", () -> {
+            GameBoy gb = gameBoy(BOOT_FRAMES);
+            ByteBuffer buffer = gb.snapshot();
+            return () -> {
+                buffer.rewind();
+                gb.restore(buffer);
+                return buffer.position();
+            };
+        });
+        benchmarks.put("GameBoy.fork", () -> {
+            GameBoy gb = gameBoy(BOOT_FRAMES);
+            return () -> (int) gb.fork().cycles();
+        });
+
+        System.out.println(String.format("%-32s %20s %8s %15s %13s",
+                "benchmark", "throughput", "error", "allocation", "rate"));
+        for (Map.Entry<String, Supplier<Harness.Op>> b : benchmarks
+                .entrySet()) {
+            if (filter.matcher(b.getKey()).find())
+                System.out.println(
+                        harness.measure(b.getKey(), b.getValue().get()));
+        }
+    }
+
+    /**
+     * Retourne une opération qui exécute une instruction du programme répétant
+     * le bloc donné
+     */
+    private static Harness.Op cpu(int[] block) {
+        Bus bus = new Bus();
+        // le programme ne change jamais de banque
+        Cpu cpu = new Cpu(address -> address >>> 14);
+        Ram program = new Ram(SyntheticRom.ROM_SIZE);
+        byte[] code = SyntheticRom.loop(block);
+        for (int i = 0; i < code.length; ++i)
+            program.write(i, Byte.toUnsignedInt(code[i]));
+
+        new RamController(program, 0).attachTo(bus);
+        new RamController(new Ram(AddressMap.WORK_RAM_SIZE),
+                AddressMap.WORK_RAM_START).attachTo(bus);
+        cpu.attachTo(bus);
+
+        long[] cycle = { 0 };
+        return () -> {
+            long c = cpu.nextCycle(cycle[0]);
+            cpu.cycle(c);
+            cycle[0] = c + 1;
+            return (int) c;
+        };
+    }
+
+    private static Harness.Op busRead() {
+        Bus bus = gameBoy(0).bus();
+        int[] address = { 0 };
+        return () -> {
+            address[0] = (address[0] + 0x9E3) & 0xFFFF;
+            return bus.read(address[0]);
+        };
+    }
+
+    /**
+     * Retourne une opération qui écrit dans la mémoire de travail, la mémoire
+     * vidéo ou la mémoire haute, qui n'ont aucun effet de bord
+     */
+    private static Harness.Op busWrite() {
+        Bus bus = gameBoy(0).bus();
+        Random random = new Random(SEED);
+        int[] starts = { AddressMap.WORK_RAM_START, AddressMap.VIDEO_RAM_START,
+                AddressMap.HIGH_RAM_START };
+        int[] sizes = { AddressMap.WORK_RAM_SIZE, AddressMap.VIDEO_RAM_SIZE,
+                AddressMap.HIGH_RAM_SIZE };
+        int[] addresses = new int[4096];
+        for (int i = 0; i < addresses.length; ++i)
+            addresses[i] = starts[i % 3] + random.nextInt(sizes[i % 3]);
+
+        int[] index = { 0 };
+        return () -> {
+            int i = index[0] = (index[0] + 1) & (addresses.length - 1);
+            bus.write(addresses[i], i & 0xFF);
+            return i;
+        };
+    }
+
+    /**
+     * Retourne une opération qui fait avancer le contrôleur de l'écran d'une
+     * ligne, calculée à partir d'une mémoire vidéo et d'une OAM aléatoires
+     */
+    private static Harness.Op lcdLine() {
+        Bus bus = new Bus();
+        Cpu cpu = new Cpu();
+        LcdController lcd = new LcdController(cpu);
+        cpu.attachTo(bus);
+        lcd.attachTo(bus);
+
+        Random random = new Random(SEED);
+        for (int a = AddressMap.VIDEO_RAM_START; a < AddressMap.VIDEO_RAM_END; ++a)
+            bus.write(a, random.nextInt(256));
+        for (int a = AddressMap.OAM_START; a < AddressMap.OAM_END; ++a)
+            bus.write(a, random.nextInt(256));
+
+        bus.write(SCY, 13);
+        bus.write(SCX, 77);
+        bus.write(WY, 80);
+        bus.write(WX, 87);
+        bus.write(BGP, 0b11_10_01_00);
+        bus.write(OBP0, 0b11_01_00_10);
+        bus.write(OBP1, 0b00_01_10_11);
+        bus.write(LCDC, 0b1111_0111);
+
+        long[] cycle = { 0 };
+        return () -> {
+            long end = cycle[0] + LINE_CYCLES;
+            for (long c = lcd.nextCycle(cycle[0]); c < end; c = lcd
+                    .nextCycle(c + 1))
+                lcd.cycle(c);
+            cycle[0] = end;
+            return (int) end;
+        };
+    }
+
+    private static Harness.Op frame(RenderPolicy policy) {
+        GameBoy gb = gameBoy(BOOT_FRAMES);
+        gb.getLcdController().setRenderPolicy(policy);
+        return () -> {
+            gb.runUntil(gb.cycles() + GameBoy.CYCLES_PER_FRAME);
+            return (int) gb.cycles();
+        };
+    }
+
+    /**
+     * Retourne une gameboy dont la cartouche est la cartouche synthétique,
+     * après avoir simulé le nombre d'images donné
+     */
+    static GameBoy gameBoy(int frames) {
+        try {
+            GameBoy gb = new GameBoy(
+                    Cartridge.ofFile(SyntheticRom.cartridgeFile()));
+            gb.runUntil(frames * GameBoy.CYCLES_PER_FRAME);
+            return gb;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BitVector[] vectors(int count) {
+        Random random = new Random(SEED);
+        BitVector[] vectors = new BitVector[count];
+        for (int i = 0; i < count; ++i) {
+            BitVector.Builder builder = new BitVector.Builder(256);
+            for (int b = 0; b < 256 / Byte.SIZE; ++b)
+                builder.setByte(b, random.nextInt(256));
+            vectors[i] = builder.build();
+        }
+        return vectors;
+    }
+
+    private static LcdImageLine[] lines(int count) {
+        Random random = new Random(SEED);
+        LcdImageLine[] lines = new LcdImageLine[count];
+        for (int i = 0; i < count; ++i) {
+            LcdImageLine.Builder builder = new LcdImageLine.Builder(LINE_WIDTH);
+            for (int b = 0; b < LINE_WIDTH / Byte.SIZE; ++b)
+                builder.setBytes(b, random.nextInt(256), random.nextInt(256));
+            lines[i] = builder.build();
+        }
+        return lines;
+    }
+}
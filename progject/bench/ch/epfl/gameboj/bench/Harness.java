@@ -0,0 +1,117 @@
+package ch.epfl.gameboj.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import ch.epfl.gameboj.Preconditions;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Mesure le débit d'une opération (opérations par seconde) et la
+ *         quantité de mémoire qu'elle alloue, comme le font JMH et son
+ *         profileur gc : l'opération est d'abord répétée pour laisser le
+ *         compilateur JIT l'optimiser, puis mesurée durant plusieurs
+ *         itérations.
+ */
+final class Harness {
+
+    /**
+     * Représente une opération mesurée, qui retourne une valeur dépendant de
+     * son résultat pour que le compilateur ne puisse pas l'éliminer
+     */
+    @FunctionalInterface
+    interface Op {
+        int run();
+    }
+
+    private static final long BATCH_NANOS = 100_000;
+    private static volatile int sink;
+
+    private final long warmupNanos;
+    private final long iterationNanos;
+    private final int iterations;
+    private final com.sun.management.ThreadMXBean threads;
+
+    /**
+     * Construit un harnais de mesure
+     *
+     * @param warmupMillis
+     *            durée de la mise en route
+     * @param iterationMillis
+     *            durée de chaque itération mesurée
+     * @param iterations
+     *            nombre d'itérations mesurées
+     * @throws IllegalArgumentException
+     *             si une des durées ou le nombre d'itérations n'est pas
+     *             strictement positif
+     */
+    Harness(long warmupMillis, long iterationMillis, int iterations) {
+        Preconditions.checkArgument(
+                warmupMillis > 0 && iterationMillis > 0 && iterations > 0);
+        this.warmupNanos = warmupMillis * 1_000_000;
+        this.iterationNanos = iterationMillis * 1_000_000;
+        this.iterations = iterations;
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+    }
+
+    /**
+     * Mesure l'opération donnée et retourne une ligne de résultat
+     *
+     * @param name
+     *            nom de la mesure
+     * @param op
+     *            opération à mesurer
+     * @return le débit moyen, son écart relatif, les octets alloués par
+     *         opération et le débit d'allocation
+     */
+    String measure(String name, Op op) {
+        long thread = Thread.currentThread().getId();
+        int batch = 1;
+        int acc = 0;
+
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < warmupNanos) {
+            long batchStart = System.nanoTime();
+            for (int i = 0; i < batch; ++i)
+                acc += op.run();
+            if (System.nanoTime() - batchStart < BATCH_NANOS)
+                batch *= 2;
+        }
+
+        double[] throughput = new double[iterations];
+        long totalOps = 0, totalBytes = 0, totalNanos = 0;
+
+        for (int it = 0; it < iterations; ++it) {
+            long ops = 0;
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long itStart = System.nanoTime();
+            long elapsed;
+            do {
+                for (int i = 0; i < batch; ++i)
+                    acc += op.run();
+                ops += batch;
+                elapsed = System.nanoTime() - itStart;
+            } while (elapsed < iterationNanos);
+
+            totalBytes += threads.getThreadAllocatedBytes(thread) - bytes;
+            totalOps += ops;
+            totalNanos += elapsed;
+            throughput[it] = ops * 1e9 / elapsed;
+        }
+        sink += acc;
+
+        double mean = totalOps * 1e9 / totalNanos;
+        double variance = 0;
+        for (double t : throughput)
+            variance += (t - mean) * (t - mean);
+        double error = Math.sqrt(variance / iterations) / mean * 100;
+
+        return String.format(Locale.ROOT,
+                "%-32s %14.1f ops/s ± %5.1f%% %12.1f B/op %10.1f MB/s", name,
+                mean, error, (double) totalBytes / totalOps,
+                totalBytes * 1e3 / totalNanos);
+    }
+}
@@ -0,0 +1,50 @@
+package ch.epfl.gameboj.bench;
+
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdImage;
+import ch.epfl.gameboj.gui.ImageConverter;
+import javafx.application.Platform;
+import javafx.scene.image.WritableImage;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Mesure la conversion d'une image de l'écran en image JavaFX, point
+ *         par point ou par copie du tampon ARGB ; séparée des autres mesures
+ *         car elle a besoin de la plateforme JavaFX.
+ */
+public final class ImageConverterBenchmark {
+
+    private static final int BOOT_FRAMES = 120;
+
+    private ImageConverterBenchmark() {
+    }
+
+    /**
+     * Démarre la plateforme JavaFX puis mesure la conversion
+     *
+     * @param args
+     *            non utilisés
+     */
+    public static void main(String[] args) {
+        Platform.startup(() -> {
+        });
+
+        LcdController lcd = Benchmarks.gameBoy(BOOT_FRAMES).getLcdController();
+        LcdImage image = lcd.currentImage();
+        int[] argb = lcd.argbFrameBuffer();
+        WritableImage screen = new WritableImage(LcdController.LCD_WIDTH,
+                LcdController.LCD_HEIGHT);
+
+        Harness harness = new Harness(2000, 1000, 5);
+        System.out.println(harness.measure("ImageConverter.convert",
+                () -> (int) ImageConverter.convert(image).getWidth()));
+        System.out.println(harness.measure("ImageConverter.update", () -> {
+            ImageConverter.update(argb, screen);
+            return argb[0];
+        }));
+
+        Platform.exit();
+    }
+}
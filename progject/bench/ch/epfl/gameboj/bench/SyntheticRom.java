@@ -0,0 +1,126 @@
+package ch.epfl.gameboj.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Construit les programmes exécutés par les mesures, le projet ne
+ *         contenant aucune cartouche de test.
+ */
+final class SyntheticRom {
+
+    static final int ROM_SIZE = 0x8000;
+
+    private static final int JP_N16 = 0xC3;
+    private static final int LOOP_END = 0x7000;
+
+    /**
+     * Suite d'instructions arithmétiques et logiques sur les registres
+     */
+    static final int[] ALU_BLOCK = { 0x80, 0x91, 0xA2, 0xB3, 0xAC, 0xBD, 0x3C,
+            0x05, 0x8F, 0x9A, 0xC6, 0x37, 0x27, 0x2F, 0x37, 0x3F, 0x09, 0x13,
+            0x1D, 0x9F };
+
+    /**
+     * Suite de chargements et de stockages, HL désignant la mémoire de travail
+     */
+    static final int[] LOAD_BLOCK = { 0x21, 0x00, 0xC0, 0x22, 0x2A, 0x47,
+            0x48, 0x51, 0x5A, 0x3E, 0x5A, 0x77, 0x7E, 0xEA, 0x00, 0xC1, 0xFA,
+            0x01, 0xC1, 0x01, 0x34, 0x12, 0x11, 0x78, 0xC1, 0x12, 0x1A };
+
+    /**
+     * Suite d'instructions préfixées (rotations, décalages, tests de bits)
+     */
+    static final int[] PREFIXED_BLOCK = { 0x21, 0x00, 0xC0, 0xCB, 0x00, 0xCB,
+            0x19, 0xCB, 0x22, 0xCB, 0x2B, 0xCB, 0x3F, 0xCB, 0x37, 0xCB, 0x47,
+            0xCB, 0x7A, 0xCB, 0xC1, 0xCB, 0x88, 0xCB, 0x16, 0xCB, 0x46 };
+
+    /**
+     * Suite de sauts, d'appels et de retours (la routine appelée est un
+     * simple RET placé en fin de programme)
+     */
+    static final int[] CONTROL_BLOCK = { 0x31, 0x00, 0xD0, 0xCD, 0xFF, 0x7F,
+            0x18, 0x00, 0xAF, 0x20, 0x02, 0x28, 0x00, 0xC4, 0xFF, 0x7F, 0xCC,
+            0xFF, 0x7F, 0xC5, 0xC1 };
+
+    private SyntheticRom() {
+    }
+
+    /**
+     * Retourne un programme de 32 Ko qui répète le bloc donné puis saute au
+     * début, la dernière adresse contenant un RET
+     *
+     * @param block
+     *            les octets des instructions à répéter
+     * @return le programme
+     */
+    static byte[] loop(int[] block) {
+        byte[] rom = new byte[ROM_SIZE];
+        int pc = 0;
+        while (pc + block.length < LOOP_END) {
+            for (int b : block)
+                rom[pc++] = (byte) b;
+        }
+        rom[pc++] = (byte) JP_N16;
+        rom[pc++] = 0;
+        rom[pc] = 0;
+        rom[ROM_SIZE - 1] = (byte) 0xC9;
+        return rom;
+    }
+
+    /**
+     * Retourne une cartouche de type 0 qui, après la mémoire morte de
+     * démarrage, remplit la mémoire vidéo, allume l'écran avec la fenêtre et
+     * les sprites, puis boucle sur des calculs qui font défiler l'arrière-plan
+     * et sur l'attente d'une ligne de l'écran
+     *
+     * @return le contenu de la cartouche
+     */
+    static byte[] cartridge() {
+        byte[] rom = new byte[ROM_SIZE];
+        int[] entry = { 0x00, JP_N16, 0x50, 0x01 };
+        int[] main = {
+                // LD SP,FFFE ; LD HL,8000 ; LD B,0
+                0x31, 0xFE, 0xFF, 0x21, 0x00, 0x80, 0x06, 0x00,
+                // remplissage de la mémoire vidéo jusqu'à A000
+                0x7D, 0x07, 0xAC, 0x80, 0x22, 0x04, 0x7C, 0xFE, 0xA0, 0x20,
+                0xF5,
+                // sprites : remplissage de l'OAM
+                0x21, 0x00, 0xFE, 0x78, 0x87, 0x80, 0x22, 0x04, 0x7D, 0xFE,
+                0xA0, 0x20, 0xF6,
+                // WY, WX, palettes, LCDC
+                0x3E, 0x50, 0xE0, 0x4A, 0x3E, 0x57, 0xE0, 0x4B, 0x3E, 0xE4,
+                0xE0, 0x47, 0x3E, 0xD2, 0xE0, 0x48, 0x3E, 0xF7, 0xE0, 0x40,
+                // boucle : calculs, SCX, SCY, attente de la ligne 0x90
+                0x3C, 0x47, 0xCB, 0x37, 0x80, 0x27, 0xE0, 0x43, 0xE0, 0x42,
+                0xF0, 0x44, 0xFE, 0x90, 0x20, 0xFA, 0x18, 0xEE };
+
+        copy(rom, 0x100, entry);
+        copy(rom, 0x150, main);
+        return rom;
+    }
+
+    /**
+     * Écrit la cartouche synthétique dans un fichier temporaire, supprimé à la
+     * fin de l'exécution
+     *
+     * @return le fichier
+     * @throws IOException
+     *             en cas d'erreur d'entrée-sortie
+     */
+    static File cartridgeFile() throws IOException {
+        File file = File.createTempFile("gameboj-bench", ".gb");
+        file.deleteOnExit();
+        Files.write(file.toPath(), cartridge());
+        return file;
+    }
+
+    private static void copy(byte[] rom, int address, int[] bytes) {
+        for (int b : bytes)
+            rom[address++] = (byte) b;
+    }
+}
@@ -1,62 +1,271 @@
 package ch.epfl.gameboj;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import ch.epfl.gameboj.component.Component;
 
 /**
 *@author Alvaro Cauderan ( 282186)
 *@author Gauthier Boeshertz (283192)
-*représente — de manière très abstraite — les bus d'adresses et
+*représente — de manière très abstraite — les bus d'adresses et
 * de données connectant les composants du Game Boy entre eux.
 *
+* Les accès ne parcourent pas les composants attachés : une table de
+* routage, découpée en 256 pages de 256 adresses, est construite au moment
+* de l'attachement et donne directement le composant qui possède une
+* adresse en lecture et ceux qui sont concernés par une écriture. Les pages
+* qui n'appartiennent qu'à un seul composant sont partagées, seules les
+* pages mixtes (OAM, registres d'entrée/sortie) ont des entrées distinctes.
+*
 */
 public final class Bus {
-    private  final  ArrayList<Component> Attachedto = new ArrayList<>();
     private final int ADDRESS_MAX8 = 255;
-    
+    private static final int PAGE_SIZE = 256;
+    private static final int PAGE_COUNT = (Preconditions.MAX16 + 1) / PAGE_SIZE;
+    private static final Component[] NO_TARGETS = new Component[0];
+    private static final Component[] UNMAPPED_READ_PAGE = new Component[PAGE_SIZE];
+    private static final Component[][] UNMAPPED_WRITE_PAGE = new Component[PAGE_SIZE][];
+
+    static {
+        Arrays.fill(UNMAPPED_WRITE_PAGE, NO_TARGETS);
+    }
+
+    private long currentCycle = 0;
+    private Runnable beforeWrite = null;
+
+    private final Component[][] readTable = new Component[PAGE_COUNT][];
+    private final Component[][][] writeTable = new Component[PAGE_COUNT][][];
+
+    private final Map<Component, Component[]> uniformReadPages = new IdentityHashMap<>();
+    private final Map<Component[], Component[][]> uniformWritePages = new IdentityHashMap<>();
+    private final Map<List<Component>, Component[]> writeTargets = new HashMap<>();
+    // composants déjà présents dans la table de routage, dont l'attachement
+    // n'a plus rien à faire
+    private final Set<Component> preRouted = Collections
+            .newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * construit un bus auquel aucun composant n'est attaché
+     */
+    public Bus() {
+        Arrays.fill(readTable, UNMAPPED_READ_PAGE);
+        Arrays.fill(writeTable, UNMAPPED_WRITE_PAGE);
+    }
+
+    /**
+     * construit un bus dont la table de routage est celle du bus donné, dans
+     * laquelle chaque composant est remplacé par celui que lui associe la
+     * table donnée ; ces derniers doivent encore être attachés, mais leur
+     * premier attachement ne parcourt plus leurs adresses. Les composants
+     * de remplacement doivent donc posséder les mêmes adresses que ceux
+     * qu'ils remplacent.
+     * 
+     * @param model
+     *            le bus dont la table de routage est reprise
+     * @param substitutes
+     *            le composant de remplacement de chaque composant attaché au
+     *            bus donné
+     * @throws NullPointerException
+     *             si un des composants attachés au bus donné n'a pas de
+     *             composant de remplacement
+     */
+    public Bus(Bus model, Map<Component, Component> substitutes) {
+        Map<Component[], Component[]> targets = new IdentityHashMap<>();
+        Map<Component[], Component[]> readPages = new IdentityHashMap<>();
+        Map<Component[][], Component[][]> writePages = new IdentityHashMap<>();
+        targets.put(NO_TARGETS, NO_TARGETS);
+        readPages.put(UNMAPPED_READ_PAGE, UNMAPPED_READ_PAGE);
+        writePages.put(UNMAPPED_WRITE_PAGE, UNMAPPED_WRITE_PAGE);
+
+        for (Map.Entry<List<Component>, Component[]> e : model.writeTargets
+                .entrySet()) {
+            Component[] t = substitute(e.getValue(), substitutes);
+            targets.put(e.getValue(), t);
+            writeTargets.put(Arrays.asList(t), t);
+        }
+        for (Map.Entry<Component, Component[]> e : model.uniformReadPages
+                .entrySet()) {
+            Component[] page = substitute(e.getValue(), substitutes);
+            readPages.put(e.getValue(), page);
+            uniformReadPages.put(page[0], page);
+        }
+        for (Map.Entry<Component[], Component[][]> e : model.uniformWritePages
+                .entrySet()) {
+            Component[][] page = new Component[PAGE_SIZE][];
+            Arrays.fill(page, targets.get(e.getKey()));
+            writePages.put(e.getValue(), page);
+            uniformWritePages.put(page[0], page);
+        }
+
+        for (int page = 0; page < PAGE_COUNT; ++page) {
+            Component[] reads = readPages.get(model.readTable[page]);
+            if (reads == null) {
+                reads = substitute(model.readTable[page], substitutes);
+                readPages.put(model.readTable[page], reads);
+            }
+            readTable[page] = reads;
+
+            Component[][] writes = writePages.get(model.writeTable[page]);
+            if (writes == null) {
+                Component[][] p = model.writeTable[page];
+                writes = new Component[PAGE_SIZE][];
+                for (int i = 0; i < PAGE_SIZE; ++i)
+                    writes[i] = i > 0 && p[i] == p[i - 1] ? writes[i - 1]
+                            : targets.get(p[i]);
+                writePages.put(p, writes);
+            }
+            writeTable[page] = writes;
+        }
+        preRouted.addAll(substitutes.values());
+    }
+
+    private static Component[] substitute(Component[] components,
+            Map<Component, Component> substitutes) {
+        Component[] copy = new Component[components.length];
+        for (int i = 0; i < copy.length; ++i) {
+            // les composants d'une page se suivent en général par plages
+            if (i > 0 && components[i] == components[i - 1])
+                copy[i] = copy[i - 1];
+            else if (components[i] != null)
+                copy[i] = Objects
+                        .requireNonNull(substitutes.get(components[i]));
+        }
+        return copy;
+    }
+
 /**
- *  attache le composant donné au bus
+ *  attache le composant donné au bus, et ajoute à la table de routage les
+ *  adresses qu'il possède (en lecture, seulement celles qui n'appartiennent
+ *  pas déjà à un composant attaché avant lui)
  *  @throws NullPointerException si le composant vaut null
  *  @param donne le composant a attacher
  */
     public void attach(Component component) {
 
-        Attachedto.add(
-                Objects.requireNonNull(component, "The component is null"));
+        Objects.requireNonNull(component, "The component is null");
+        if (preRouted.remove(component))
+            return;
+
+        for (int page = 0; page < PAGE_COUNT; ++page) {
+            Component[] reads = readTable[page];
+            Component[][] writes = writeTable[page];
+            Component[] newReads = null;
+            Component[][] newWrites = null;
+
+            for (int offset = 0; offset < PAGE_SIZE; ++offset) {
+                int address = page * PAGE_SIZE + offset;
 
+                if (reads[offset] == null
+                        && component.read(address) != Component.NO_DATA) {
+                    if (newReads == null)
+                        newReads = reads.clone();
+                    newReads[offset] = component;
+                }
+
+                if (component.isWriteTarget(address)) {
+                    if (newWrites == null)
+                        newWrites = writes.clone();
+                    newWrites[offset] = withTarget(writes[offset], component);
+                }
+            }
+
+            if (newReads != null)
+                readTable[page] = sharedReadPage(newReads);
+            if (newWrites != null)
+                writeTable[page] = sharedWritePage(newWrites);
+        }
     }
-    
+
+    private Component[] withTarget(Component[] targets, Component component) {
+        List<Component> list = new ArrayList<>(Arrays.asList(targets));
+        list.add(component);
+        return writeTargets.computeIfAbsent(list,
+                l -> l.toArray(new Component[l.size()]));
+    }
+
+    private Component[] sharedReadPage(Component[] page) {
+        for (Component c : page) {
+            if (c != page[0])
+                return page;
+        }
+        return page[0] == null ? UNMAPPED_READ_PAGE
+                : uniformReadPages.computeIfAbsent(page[0], c -> page);
+    }
+
+    private Component[][] sharedWritePage(Component[][] page) {
+        for (Component[] targets : page) {
+            if (targets != page[0])
+                return page;
+        }
+        return uniformWritePages.computeIfAbsent(page[0], t -> page);
+    }
+
+    /**
+     * retourne le cycle en cours d'exécution, durant lequel ont lieu les accès
+     * au bus ; permet aux composants qui n'évoluent pas à chaque cycle de se
+     * mettre à jour lorsqu'on accède à leurs registres
+     * 
+     * @return le cycle en cours
+     */
+    public long currentCycle() {
+        return currentCycle;
+    }
+
+    /**
+     * change le cycle en cours d'exécution
+     * 
+     * @param cycle
+     *            le cycle en cours
+     */
+    void setCurrentCycle(long cycle) {
+        currentCycle = cycle;
+    }
+
+    /**
+     * donne l'action exécutée avant chaque écriture sur le bus, jusqu'au
+     * prochain appel ; permet à un composant qui lit le bus en retard de se
+     * mettre à jour avant que son contenu ne change
+     * 
+     * @param action
+     *            l'action, ou null s'il n'y en a pas
+     */
+    public void beforeWrite(Runnable action) {
+        beforeWrite = action;
+    }
+
 /**
- *  retourne la valeur stockée à l'adresse donnée si au moins un des composants attaché au bus 
- *  possède une valeur à cette adresse, ou FF16 sinon 
+ *  retourne la valeur stockée à l'adresse donnée si au moins un des composants attaché au bus
+ *  possède une valeur à cette adresse, ou FF16 sinon
  *  @param address  l'addresse où il y a les valeurs a retourner
  *  @throws IllegalArgumentException si l'adresse n'est pas une valeur 16 bits
- *  
+ *
  */
-    public int read(int address) 
+    public int read(int address)
     {
-        
-         address = Preconditions.checkBits16(address);
-        for (Component c : Attachedto) {
-            if (c.read(address) != Component.NO_DATA ) {
 
-                return c.read(address);
-            }
-        }
+        address = Preconditions.checkBits16(address);
+        Component owner = readTable[address >>> 8][address & 0xFF];
 
-        return  ADDRESS_MAX8;
+        return owner == null ? ADDRESS_MAX8 : owner.read(address);
 
     }
-    
+
     /**
      *  qui écrit la valeur à l'adresse donnée dans tous les composants connectés au bus
-     *  
+     *  qui sont concernés par cette adresse
+     *
      *  @param address addresse à laquelle la nouvelle valeur sera écrite
      *  @param data valeur a inscrire à l'addresse
-     *  @throws IllegalArgumentException si l'adresse n'est pas une valeur 
+     *  @throws IllegalArgumentException si l'adresse n'est pas une valeur
      *  16 bits ou si la donnée n'est pas une valeur 8 bits.
-     *  
+     *
      */
 
     public void write(int address, int data) {
@@ -64,7 +273,10 @@ public final class Bus {
         address= Preconditions.checkBits16(address);
         data = Preconditions.checkBits8(data);
 
-        for (Component c : Attachedto) {
+        if (beforeWrite != null)
+            beforeWrite.run();
+
+        for (Component c : writeTable[address >>> 8][address & 0xFF]) {
             c.write(address, data);
         }
     }
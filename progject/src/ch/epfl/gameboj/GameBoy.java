@@ -1,8 +1,15 @@
 package ch.epfl.gameboj;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Objects;
 
+import ch.epfl.gameboj.component.Clocked;
+import ch.epfl.gameboj.component.Component;
 import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.Stateful;
 import ch.epfl.gameboj.component.Timer;
 import ch.epfl.gameboj.component.cartridge.Cartridge;
 import ch.epfl.gameboj.component.cpu.Cpu;
@@ -22,7 +29,8 @@ import ch.epfl.gameboj.component.memory.Rom;
  */
 public final  class GameBoy {
     
-    private final Bus bus = new Bus();
+    private final Bus bus;
+    private final Cartridge cartridge;
     private  final Ram workRAM;
     private final Cpu cpu;
     private final  RamController workControl;
@@ -32,8 +40,15 @@ public final  class GameBoy {
     private final Timer timer;
     private final LcdController lcdControl;
     private final Joypad joypad;
+    private final Clocked[] clocked;
+    private final Stateful[] stateful;
     private static final long CYCLES_PER_SECOND = (long) Math.pow(2,20);
+    public static final long CYCLES_PER_FRAME = 17556;
     public static final double CYCLES_PER_NANOSECOND = CYCLES_PER_SECOND / 1e9; //*Math.pow(10, -9);
+    private static final int SNAPSHOT_MAGIC = 0x47424A53; // "GBJS"
+    private static final short SNAPSHOT_VERSION = 3;
+    private static final int SNAPSHOT_HEADER_SIZE = Integer.BYTES
+            + Short.BYTES + Integer.BYTES + Long.BYTES;
    
     /**
      * Construit une gameboy
@@ -44,12 +59,32 @@ public final  class GameBoy {
      *             si la cartouche est nulle
      */
     public GameBoy(Cartridge cartridge) {
+        this(Objects.requireNonNull(cartridge), null);
+    }
 
-       Objects.requireNonNull(cartridge);
+    /**
+     * Construit une copie de la gameboy donnée, voir fork ; l'état de la
+     * cartouche est copié une seule fois, avec celui du contrôleur de la
+     * mémoire morte de démarrage
+     */
+    private GameBoy(GameBoy parent) {
+        this(parent.cartridge.blankCopy(), parent);
 
-        cpu = new Cpu();
-        timer = new Timer(cpu);
+        cycles = parent.cycles;
+        for (int i = 0; i < stateful.length; ++i)
+            stateful[i].copyStateFrom(parent.stateful[i]);
+    }
+
+    /**
+     * Construit une gameboy dont le bus reprend, si elle n'est pas nulle, la
+     * table de routage de la gameboy donnée
+     */
+    private GameBoy(Cartridge cartridge, GameBoy parent) {
+
+        this.cartridge = cartridge;
         controller = new BootRomController(cartridge);
+        cpu = new Cpu(controller);
+        timer = new Timer(cpu);
         workRAM = new Ram(AddressMap.WORK_RAM_SIZE);
         workControl = new RamController(workRAM, AddressMap.WORK_RAM_START,
                 AddressMap.WORK_RAM_END);
@@ -57,7 +92,23 @@ public final  class GameBoy {
                 AddressMap.ECHO_RAM_END);
         lcdControl = new LcdController(cpu);
        joypad= new Joypad(cpu);
-        
+
+        if (parent == null) {
+            bus = new Bus();
+        } else {
+            Map<Component, Component> substitutes = new IdentityHashMap<>();
+            substitutes.put(parent.workCopy, workCopy);
+            substitutes.put(parent.controller, controller);
+            substitutes.put(parent.timer, timer);
+            substitutes.put(parent.cpu, cpu);
+            substitutes.put(parent.joypad, joypad);
+            substitutes.put(parent.lcdControl, lcdControl);
+            substitutes.put(parent.workControl, workControl);
+            bus = new Bus(parent.bus, substitutes);
+        }
+        // aucun cycle n'est en cours : le dernier cycle écoulé tient lieu de
+        // cycle en cours pour les accès faits hors de runUntil
+        bus.setCurrentCycle(parent == null ? -1 : parent.bus.currentCycle());
 
         workCopy.attachTo(bus);
         controller.attachTo(bus);
@@ -68,6 +119,30 @@ public final  class GameBoy {
         
         workControl.attachTo(bus);
 
+        // ordre dans lequel les composants évoluent durant un même cycle
+        clocked = new Clocked[] { timer, lcdControl, cpu };
+        // ordre dans lequel les états sont sauvegardés
+        stateful = new Stateful[] { cpu, timer, lcdControl, joypad, workRAM,
+                controller };
+    }
+
+    /**
+     * Retourne une copie de la gameboy dans son état courant, qui évolue
+     * ensuite indépendamment d'elle. La copie ne coûte que quelques
+     * microsecondes : les mémoires (mémoire de travail, vidéo, OAM, haute,
+     * mémoire vive de la cartouche) et les tampons de l'image sont partagés,
+     * chacune des deux gameboys copiant une page de 256 octets lors de sa
+     * première écriture dans celle-ci, et la mémoire morte de la cartouche
+     * est partagée ; le bus reprend la table de routage de cette gameboy.
+     * 
+     * La copie peut être utilisée sur un autre fil que cette gameboy, sans
+     * synchronisation : aucune des deux ne modifie ce qu'elles partagent.
+     * La copie doit être faite sur le fil qui utilise cette gameboy.
+     * 
+     * @return la copie
+     */
+    public GameBoy fork() {
+        return new GameBoy(this);
     }
 
     /**
@@ -79,6 +154,15 @@ public final  class GameBoy {
         return bus;
     }
 
+    /**
+     * Retourne la cartouche
+     * 
+     * @return la cartouche
+     */
+    public Cartridge cartridge() {
+        return cartridge;
+    }
+
     /**
      * Retourne le cpu
      * 
@@ -101,7 +185,11 @@ public final  class GameBoy {
     }
 
     /**
-     * Simule le fonctionnement de la gameboy, en incrémentant les cycles
+     * Simule le fonctionnement de la gameboy jusqu'au cycle donné, en sautant
+     * directement au prochain cycle durant lequel un des composants a quelque
+     * chose à faire. Jusqu'au prochain cycle durant lequel un autre composant
+     * que le processeur évolue, les instructions du processeur sont exécutées
+     * à la suite et les tours de ses boucles d'attente sont sautés
      * 
      * @param cycle
      *            le nombre de cycle que la gameboy doit effectuer
@@ -113,15 +201,142 @@ public final  class GameBoy {
 
         Preconditions.checkArgument(cycles() <= cycle);
 
+        // dernier cycle durant lequel un autre composant que le processeur a
+        // évolué, la gameboy ayant pu être modifiée avant cet appel
+        long lastEvent = cycles;
+
         while (cycles() < cycle) {
 
-           
-            timer.cycle(cycles);
-            
-            lcdControl.cycle(cycles);
-            cpu.cycle(cycles);
-            ++cycles;
+            bus.setCurrentCycle(cycles);
+
+            for (Clocked c : clocked) {
+                if (c.nextCycle(cycles) == cycles) {
+                    c.cycle(cycles);
+                    if (c != cpu)
+                        lastEvent = cycles;
+                }
+            }
+
+            // jusqu'au prochain cycle durant lequel un autre composant
+            // évolue, seul le processeur évolue : ses instructions sont
+            // exécutées à la suite, ce prochain cycle n'étant recalculé que
+            // si l'une d'elles écrit dans un autre composant
+            long others = othersNextCycle(cycle);
+            while (true) {
+                // une boucle d'attente du processeur est sautée jusqu'à ce
+                // qu'un autre composant évolue
+                if (cpu.inIdleLoop())
+                    cpu.skipIdleLoop(lastEvent, others);
+                long next = cpu.nextCycle(cycles + 1);
+                if (next >= others) {
+                    cycles = others;
+                    break;
+                }
+
+                cycles = next;
+                bus.setCurrentCycle(cycles);
+                cpu.cycle(cycles);
+                if (cpu.wroteComponent())
+                    others = othersNextCycle(cycle);
+            }
         }
+        bus.setCurrentCycle(cycles - 1);
+    }
+
+    /**
+     * Retourne le premier cycle, après le cycle courant et au plus le cycle
+     * donné, durant lequel un autre composant que le processeur évolue
+     */
+    private long othersNextCycle(long limit) {
+        long others = limit;
+        for (Clocked c : clocked) {
+            if (c != cpu)
+                others = Math.min(others, c.nextCycle(cycles + 1));
+        }
+        return others;
+    }
+
+    /**
+     * Retourne la taille en octets des sauvegardes de l'état de cette gameboy,
+     * qui ne dépend que de sa cartouche
+     * 
+     * @return la taille d'une sauvegarde
+     */
+    public int snapshotSize() {
+        int size = SNAPSHOT_HEADER_SIZE;
+        for (Stateful s : stateful)
+            size += s.stateSize();
+        return size;
+    }
+
+    /**
+     * Écrit l'état complet de la gameboy dans le tampon donné, à sa position
+     * courante : un en-tête (identifiant du format, version, taille, cycle
+     * courant) suivi de l'état de chaque composant
+     * 
+     * @param buffer
+     *            le tampon dans lequel l'état est écrit
+     * @throws BufferOverflowException
+     *             si le tampon n'a pas la place d'y écrire snapshotSize()
+     *             octets, auquel cas il n'est pas modifié
+     */
+    public void snapshot(ByteBuffer buffer) {
+        int size = snapshotSize();
+        if (buffer.remaining() < size)
+            throw new BufferOverflowException();
+
+        buffer.putInt(SNAPSHOT_MAGIC).putShort(SNAPSHOT_VERSION).putInt(size)
+                .putLong(cycles);
+        for (Stateful s : stateful)
+            s.saveState(buffer);
+    }
+
+    /**
+     * Retourne un nouveau tampon contenant l'état complet de la gameboy, prêt
+     * à être lu
+     * 
+     * @return le tampon contenant l'état
+     */
+    public ByteBuffer snapshot() {
+        ByteBuffer buffer = ByteBuffer.allocate(snapshotSize());
+        snapshot(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Remplace l'état de la gameboy par celui lu dans le tampon donné, à sa
+     * position courante, écrit par snapshot sur une gameboy ayant la même
+     * cartouche
+     * 
+     * @param buffer
+     *            le tampon contenant l'état
+     * @throws IllegalArgumentException
+     *             si le tampon ne commence pas par un en-tête valide, de la
+     *             même version et de la même taille que les sauvegardes de
+     *             cette gameboy, s'il est trop petit, ou si l'état d'un de
+     *             ses composants n'a pas pu être écrit par snapshot ; la
+     *             gameboy n'est alors pas modifiée
+     */
+    public void restore(ByteBuffer buffer) {
+        int size = snapshotSize();
+        int position = buffer.position();
+        Preconditions.checkArgument(buffer.remaining() >= size
+                && buffer.getInt(position) == SNAPSHOT_MAGIC
+                && buffer.getShort(position + Integer.BYTES) == SNAPSHOT_VERSION
+                && buffer.getInt(position + Integer.BYTES + Short.BYTES) == size);
+
+        // tout l'état est vérifié avant que le moindre composant soit modifié
+        ByteBuffer check = buffer.duplicate();
+        check.position(position + SNAPSHOT_HEADER_SIZE);
+        for (Stateful s : stateful)
+            s.checkState(check);
+
+        buffer.position(position + SNAPSHOT_HEADER_SIZE - Long.BYTES);
+        cycles = buffer.getLong();
+        for (Stateful s : stateful)
+            s.loadState(buffer);
+        bus.setCurrentCycle(cycles - 1);
     }
 
     /**
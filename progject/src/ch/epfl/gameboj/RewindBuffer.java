@@ -0,0 +1,271 @@
+package ch.epfl.gameboj;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Garde en mémoire les derniers états d'une gameboy, typiquement un
+ *         par image, pour pouvoir revenir à l'un d'eux.
+ *
+ *         Les états sont ceux de GameBoy.snapshot, qui couvre la mémoire de
+ *         travail, la mémoire vidéo, l'OAM, la mémoire haute, la mémoire de
+ *         la cartouche et les registres des composants. Un état sur n (l'état
+ *         clef) est gardé tel quel ; les autres sont gardés sous la forme du
+ *         ou exclusif avec l'état clef qui les précède, dont les suites de
+ *         zéros sont compressées : une suite de paires (nombre d'octets
+ *         nuls, nombre d'octets non nuls) codées sur un nombre variable
+ *         d'octets, chacune suivie des octets non nuls. Revenir à un état
+ *         coûte donc une copie de l'état clef et le décodage d'une seule
+ *         différence.
+ *
+ *         Les états les plus anciens sont oubliés lorsque le nombre d'états
+ *         dépasse la capacité ; un état clef oublié reste en mémoire tant
+ *         que des différences gardées s'y rapportent.
+ */
+public final class RewindBuffer {
+
+    private static final int VARINT_BITS = 7;
+    private static final int VARINT_MORE = 1 << VARINT_BITS;
+    private static final int VARINT_MASK = VARINT_MORE - 1;
+
+    /**
+     * état gardé : l'état clef dont il dépend et, s'il n'en est pas un, sa
+     * différence compressée avec cet état
+     */
+    private static final class Entry {
+        private final byte[] key;
+        private final byte[] delta;
+        private final int sinceKey;
+        private final long cycles;
+
+        private Entry(byte[] key, byte[] delta, int sinceKey, long cycles) {
+            this.key = key;
+            this.delta = delta;
+            this.sinceKey = sinceKey;
+            this.cycles = cycles;
+        }
+
+        private int storedBytes() {
+            return delta == null ? key.length : delta.length;
+        }
+    }
+
+    private final GameBoy gameBoy;
+    private final int keyInterval;
+    private final Entry[] entries;
+    private int first = 0;
+    private int size = 0;
+    private long storedBytes = 0;
+
+    private final byte[] state;
+    private final ByteBuffer stateBuffer;
+    private byte[] encoded;
+    // position de lecture dans la différence en cours de décodage
+    private int cursor;
+
+    /**
+     * construit un tampon vide pour la gameboy donnée
+     *
+     * @param gameBoy
+     *            la gameboy
+     * @param capacity
+     *            le nombre d'états gardés
+     * @param keyInterval
+     *            l'intervalle entre deux états clefs
+     * @throws NullPointerException
+     *             si la gameboy est nulle
+     * @throws IllegalArgumentException
+     *             si la capacité ou l'intervalle n'est pas strictement
+     *             positif
+     */
+    public RewindBuffer(GameBoy gameBoy, int capacity, int keyInterval) {
+        Preconditions.checkArgument(capacity > 0 && keyInterval > 0);
+
+        this.gameBoy = Objects.requireNonNull(gameBoy);
+        this.keyInterval = keyInterval;
+        this.entries = new Entry[capacity];
+        this.state = new byte[gameBoy.snapshotSize()];
+        this.stateBuffer = ByteBuffer.wrap(state);
+        this.encoded = new byte[state.length];
+    }
+
+    /**
+     * ajoute l'état courant de la gameboy, en oubliant le plus ancien si le
+     * tampon est plein
+     */
+    public void record() {
+        stateBuffer.clear();
+        gameBoy.snapshot(stateBuffer);
+
+        Entry last = size == 0 ? null : entry(size - 1);
+        Entry entry;
+        if (last == null || last.sinceKey + 1 >= keyInterval) {
+            entry = new Entry(state.clone(), null, 0, gameBoy.cycles());
+        } else {
+            entry = new Entry(last.key, encode(last.key), last.sinceKey + 1,
+                    gameBoy.cycles());
+        }
+
+        if (size == entries.length) {
+            storedBytes -= entries[first].storedBytes();
+            entries[first] = null;
+            first = (first + 1) % entries.length;
+            --size;
+        }
+        entries[(first + size) % entries.length] = entry;
+        ++size;
+        storedBytes += entry.storedBytes();
+    }
+
+    /**
+     * retourne le nombre d'états gardés
+     *
+     * @return le nombre d'états
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * retourne le nombre d'octets des états gardés (états clefs et
+     * différences)
+     *
+     * @return la taille des états gardés
+     */
+    public long storedBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * retourne le nombre de cycles de la gameboy lorsque l'état donné a été
+     * ajouté
+     *
+     * @param age
+     *            l'âge de l'état, 0 étant le dernier ajouté
+     * @return le nombre de cycles de l'état
+     * @throws IndexOutOfBoundsException
+     *             si l'âge n'est pas compris entre 0 et size() - 1
+     */
+    public long cyclesAt(int age) {
+        return entry(size - 1 - Objects.checkIndex(age, size)).cycles;
+    }
+
+    /**
+     * remet la gameboy dans l'état donné, et oublie les états plus récents,
+     * l'état donné devenant le dernier ajouté
+     *
+     * @param age
+     *            l'âge de l'état, 0 étant le dernier ajouté
+     * @throws IndexOutOfBoundsException
+     *             si l'âge n'est pas compris entre 0 et size() - 1
+     */
+    public void rewind(int age) {
+        Objects.checkIndex(age, size);
+
+        for (int i = 0; i < age; ++i) {
+            int index = (first + size - 1) % entries.length;
+            storedBytes -= entries[index].storedBytes();
+            entries[index] = null;
+            --size;
+        }
+
+        Entry entry = entry(size - 1);
+        System.arraycopy(entry.key, 0, state, 0, state.length);
+        if (entry.delta != null)
+            decode(entry.delta);
+
+        stateBuffer.clear();
+        gameBoy.restore(stateBuffer);
+    }
+
+    /**
+     * oublie tous les états
+     */
+    public void clear() {
+        Arrays.fill(entries, null);
+        first = 0;
+        size = 0;
+        storedBytes = 0;
+    }
+
+    private Entry entry(int i) {
+        return entries[(first + i) % entries.length];
+    }
+
+    /**
+     * retourne la différence compressée entre l'état courant et l'état clef
+     * donné
+     */
+    private byte[] encode(byte[] key) {
+        int length = 0;
+        int i = 0;
+
+        while (i < state.length) {
+            int start = i;
+            while (i < state.length && state[i] == key[i])
+                ++i;
+            if (i == state.length)
+                break;
+            int zeros = i - start;
+
+            start = i;
+            while (i < state.length && state[i] != key[i])
+                ++i;
+            int literals = i - start;
+
+            // au pire 5 octets par nombre
+            ensureEncoded(length + 10 + literals);
+            length = putVarint(length, zeros);
+            length = putVarint(length, literals);
+            for (int j = start; j < i; ++j)
+                encoded[length++] = (byte) (state[j] ^ key[j]);
+        }
+        return Arrays.copyOf(encoded, length);
+    }
+
+    /**
+     * applique au tampon de l'état la différence compressée donnée
+     */
+    private void decode(byte[] delta) {
+        cursor = 0;
+        int i = 0;
+
+        while (cursor < delta.length) {
+            i += getVarint(delta);
+            int literals = getVarint(delta);
+            for (int end = i + literals; i < end; ++i)
+                state[i] ^= delta[cursor++];
+        }
+    }
+
+    private void ensureEncoded(int length) {
+        if (encoded.length < length)
+            encoded = Arrays.copyOf(encoded, Math.max(length,
+                    2 * encoded.length));
+    }
+
+    private int putVarint(int position, int value) {
+        while (value >= VARINT_MORE) {
+            encoded[position++] = (byte) (value & VARINT_MASK | VARINT_MORE);
+            value >>>= VARINT_BITS;
+        }
+        encoded[position++] = (byte) value;
+        return position;
+    }
+
+    private int getVarint(byte[] bytes) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = bytes[cursor++];
+            value |= (b & VARINT_MASK) << shift;
+            shift += VARINT_BITS;
+        } while ((b & VARINT_MORE) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,27 @@
+package ch.epfl.gameboj.component;
+
+/**
+*@author Alvaro Cauderan ( 282186)
+*@author Gauthier Boeshertz (283192)
+*représente un élément dont le contenu visible dans l'espace d'adressage
+*de la mémoire morte (adresses 0 à 7FFF) dépend de la banque choisie, comme
+*celle d'une cartouche
+*/
+
+public interface Banked {
+
+    /**
+     * identifiant de la mémoire morte de démarrage
+     */
+    int BOOT_BANK = -1;
+
+    /**
+     * retourne l'identifiant de la banque de 16 Ko visible à l'adresse donnée
+     * de la mémoire morte ; l'octet lu à cette adresse ne dépend que de cet
+     * identifiant et des 14 bits de poids faible de l'adresse
+     *
+     * @param address l'adresse, comprise entre 0 et 7FFF
+     * @return l'identifiant de la banque, BOOT_BANK ou un entier positif
+     */
+    int bankAt(int address);
+}
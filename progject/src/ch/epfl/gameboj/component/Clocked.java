@@ -14,4 +14,18 @@ public interface Clocked {
     * @param cycle donne le cycle 
     */
     void cycle(long cycle);
+
+    /**
+     * retourne le premier cycle, supérieur ou égal au cycle donné, durant
+     * lequel le composant a quelque chose à faire, ou Long.MAX_VALUE s'il n'a
+     * plus rien à faire tant qu'un autre composant n'agit pas sur lui. Appeler
+     * cycle pour un des cycles qui précèdent n'aurait aucun effet, ce qui
+     * permet de les sauter. Par défaut, le composant évolue à chaque cycle.
+     * 
+     * @param cycle donne le cycle à partir duquel on cherche
+     * @return le prochain cycle durant lequel le composant doit évoluer
+     */
+    default long nextCycle(long cycle) {
+        return cycle;
+    }
 }
@@ -17,7 +17,9 @@ public interface Component {
   
     /**
      * qui retourne l'octet stocké à l'adresse donnée par le composant, 
-     * ou NO_DATA si le composant ne possède aucune valeur à cette adresse
+     * ou NO_DATA si le composant ne possède aucune valeur à cette adresse.
+     * Les adresses auxquelles le composant possède une valeur ne doivent pas
+     * changer une fois qu'il est attaché à un bus, qui les mémorise.
      * @param address donne l'addresse du parametre du tableau à retourner 
      * @return la valeur stockée dans le tableau à l'addresse donnée
      * 
@@ -38,6 +40,18 @@ public interface Component {
      */
     void write(int address, int data);
 
+    /**
+     * indique si une écriture à l'adresse donnée concerne le composant, le bus
+     * ne transmettant les écritures qu'aux composants concernés. Par défaut, un
+     * composant est concerné par les adresses auxquelles il possède une valeur.
+     * 
+     * @param address donne l'adresse de l'écriture
+     * @return true si le composant doit recevoir les écritures à cette adresse
+     */
+    default boolean isWriteTarget(int address) {
+        return read(address) != NO_DATA;
+    }
+
     /**
      * attache le composant au bus donné, en appelant simplement la méthode attach de celui-ci
      * @param le bus auquel   le composé sera attaché
@@ -1,5 +1,6 @@
 package ch.epfl.gameboj.component;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
@@ -14,7 +15,7 @@ import ch.epfl.gameboj.component.cpu.Cpu.Interrupt;
 *@author Gauthier Boeshertz (283192)
 *Représente le joypad
 */
-public final class Joypad implements Component {
+public final class Joypad implements Component, Stateful {
 
     private final Cpu cpu;
 
@@ -88,6 +89,45 @@ public final class Joypad implements Component {
             cpu.requestInterrupt(Interrupt.JOYPAD);
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        // P1 et les deux lignes de touches
+        return 3;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) P1).put((byte) firstLine).put((byte) secondLine);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#checkState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void checkState(ByteBuffer buffer) {
+        buffer.get();
+        int first = Byte.toUnsignedInt(buffer.get());
+        int second = Byte.toUnsignedInt(buffer.get());
+        Preconditions.checkArgument(first < 1 << LINE_LENGTH
+                && second < 1 << LINE_LENGTH);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        P1 = Byte.toUnsignedInt(buffer.get());
+        firstLine = Byte.toUnsignedInt(buffer.get());
+        secondLine = Byte.toUnsignedInt(buffer.get());
+    }
+
     /* (non-Javadoc)
      * @see ch.epfl.gameboj.component.Component#read(int)
      */
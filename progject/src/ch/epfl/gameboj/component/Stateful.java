@@ -0,0 +1,85 @@
+package ch.epfl.gameboj.component;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import ch.epfl.gameboj.Preconditions;
+
+/**
+*@author Alvaro Cauderan ( 282186)
+*@author Gauthier Boeshertz (283192)
+*représente un élément du Game Boy dont l'état peut être sauvegardé puis
+*restauré, sous une forme binaire de taille fixe
+*/
+
+public interface Stateful {
+
+    /**
+     * retourne le nombre d'octets qu'occupe l'état de l'élément
+     *
+     * @return la taille de l'état en octets
+     */
+    int stateSize();
+
+    /**
+     * écrit l'état de l'élément dans le tampon donné, à sa position courante
+     *
+     * @param buffer le tampon dans lequel l'état est écrit
+     * @throws java.nio.BufferOverflowException si le tampon n'a pas la place
+     * d'y écrire stateSize() octets
+     */
+    void saveState(ByteBuffer buffer);
+
+    /**
+     * remplace l'état de l'élément par celui lu dans le tampon donné, à sa
+     * position courante, tel qu'écrit par saveState
+     *
+     * @param buffer le tampon duquel l'état est lu
+     * @throws java.nio.BufferUnderflowException si le tampon contient moins
+     * de stateSize() octets
+     */
+    void loadState(ByteBuffer buffer);
+
+    /**
+     * vérifie que l'état écrit dans le tampon donné, à sa position courante,
+     * a pu être écrit par saveState, et avance la position du tampon de
+     * stateSize() octets, sans modifier l'élément ; permet de vérifier tout
+     * un état avant d'en charger la moindre partie. Par défaut, tout contenu
+     * de la bonne taille est accepté
+     *
+     * @param buffer le tampon contenant l'état
+     * @throws IllegalArgumentException si l'état ne peut pas avoir été écrit
+     * par saveState
+     * @throws java.nio.BufferUnderflowException si le tampon contient moins
+     * de stateSize() octets
+     */
+    default void checkState(ByteBuffer buffer) {
+        if (buffer.remaining() < stateSize())
+            throw new BufferUnderflowException();
+        buffer.position(buffer.position() + stateSize());
+    }
+
+    /**
+     * remplace l'état de l'élément par celui de l'élément donné, de la même
+     * classe ; par défaut en passant par un tampon, les éléments qui
+     * contiennent des mémoires peuvent les partager plutôt que de les copier
+     *
+     * L'élément donné n'est donc pas seulement lu : une mémoire (Ram) et
+     * l'écran (LcdController) partagent leurs pages et leurs tampons avec la
+     * copie, et cessent d'en être propriétaires, afin que chacun copie ce
+     * qu'il partage avant d'y écrire ; le minuteur se met à jour avant d'être
+     * copié. L'élément donné ne doit donc pas être utilisé sur un autre fil
+     * pendant la copie.
+     *
+     * @param other l'élément dont l'état est copié
+     * @throws IllegalArgumentException si l'élément donné n'est pas de la
+     * même classe
+     */
+    default void copyStateFrom(Stateful other) {
+        Preconditions.checkArgument(other.getClass() == getClass());
+        ByteBuffer buffer = ByteBuffer.allocate(other.stateSize());
+        other.saveState(buffer);
+        buffer.flip();
+        loadState(buffer);
+    }
+}
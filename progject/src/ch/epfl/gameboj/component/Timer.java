@@ -1,5 +1,6 @@
 package ch.epfl.gameboj.component;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
@@ -9,16 +10,29 @@ import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.cpu.Cpu;
 import ch.epfl.gameboj.component.cpu.Cpu.Interrupt;
 
-public final class Timer implements Component, Clocked {
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Minuteur du Game Boy. Il n'évolue pas à chaque cycle : ses
+ *         registres sont ceux qu'il avait au début du cycle syncedCycle, et
+ *         sont mis à jour en une fois (DIV avance de 4 par cycle, TIMA d'un
+ *         par front descendant du bit de DIV choisi par TAC) lorsqu'ils sont
+ *         lus ou écrits, au cycle en cours du bus, ainsi qu'au cycle durant
+ *         lequel TIMA déborde, seul cycle durant lequel il doit évoluer.
+ */
+public final class Timer implements Component, Clocked, Stateful {
+
+    private static final int DIV_STEP = 4;
+    private static final int TIMA_OVERFLOW = 0x100;
 
     private int regTIMA = 0;
     private int regDIV = 0;
     private int regTMA = 0;
     private int regTAC = 0;
-    private int writeMinAddress = 0;
-    private int writeMaxAddress = 65535;
-    private int writeMinData = 0;
-    private int writeMaxData = 255;
+    // premier cycle dont l'évolution n'est pas encore reportée dans DIV et
+    // TIMA
+    private long syncedCycle = 0;
 
   private  Bus bus;
   private  Cpu timer;
@@ -30,14 +44,42 @@ public final class Timer implements Component, Clocked {
 
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see ch.epfl.gameboj.component.Component#attachTo(ch.epfl.gameboj.Bus)
+     */
+    @Override
+    public void attachTo(Bus bus) {
+        this.bus = bus;
+        bus.attach(this);
+    }
+
     @Override
 
     public void cycle(long cycle) {
 
-        boolean s0 = state();
-        regDIV = Bits.clip(16, regDIV + 4);
-        incIfChange(s0);
+        syncUntil(cycle + 1);
+
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see ch.epfl.gameboj.component.Clocked#nextCycle(long)
+     */
+    @Override
+    public long nextCycle(long cycle) {
+
+        if (!Bits.test(regTAC, 2))
+            return Long.MAX_VALUE;
 
+        // TIMA déborde lors du front descendant qui amène DIV au multiple
+        // de period correspondant
+        long period = 1L << (divBitIndex() + 1);
+        long distance = (TIMA_OVERFLOW - regTIMA) * period - regDIV % period;
+        long overflow = syncedCycle + (distance + DIV_STEP - 1) / DIV_STEP - 1;
+        return Math.max(cycle, overflow);
     }
 
     @Override
@@ -49,11 +91,13 @@ public final class Timer implements Component, Clocked {
 
         case AddressMap.REG_DIV:
 
+            sync();
             valueAtAddress = Bits.extract(regDIV, 8, 8);
             break;
 
         case AddressMap.REG_TIMA:
 
+            sync();
             valueAtAddress = regTIMA;
             break;
 
@@ -80,49 +124,147 @@ public final class Timer implements Component, Clocked {
 
     /*
      * (non-Javadoc)
-     * 
+     *
      * @see ch.epfl.gameboj.component.Component#write(int, int)
      */
 
     @Override
     public void write(int address, int data) {
 
-        boolean s0 = state();
-
-        if (address < writeMinAddress || address > writeMaxAddress
-                || data < writeMinData || data > writeMaxData) {
-
-            throw new IllegalArgumentException();
+        Preconditions.checkBits8(data);
 
-        }
         switch (Preconditions.checkBits16(address)) {
 
-        case AddressMap.REG_DIV:
+        case AddressMap.REG_DIV: {
 
-            Preconditions.checkBits8(data);
+            sync();
+            boolean s0 = state();
             regDIV = 0;
             incIfChange(s0);
+        }
             break;
 
         case AddressMap.REG_TIMA:
 
-            regTIMA = Preconditions.checkBits8(data);
+            sync();
+            regTIMA = data;
             break;
 
         case AddressMap.REG_TMA:
 
-            regTMA = Preconditions.checkBits8(data);
+            sync();
+            regTMA = data;
             break;
 
-        case AddressMap.REG_TAC:
+        case AddressMap.REG_TAC: {
 
-            regTAC = Preconditions.checkBits8(data);
+            sync();
+            boolean s0 = state();
+            regTAC = data;
             incIfChange(s0);
+        }
             break;
         }
     }
 
-    private boolean state() {
+    /*
+     * (non-Javadoc)
+     *
+     * @see ch.epfl.gameboj.component.Stateful#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        // cycle de synchronisation, DIV sur 16 bits, TIMA, TMA, TAC
+        return Long.BYTES + Short.BYTES + 3;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see ch.epfl.gameboj.component.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        // l'état écrit ne dépend ainsi pas des accès qui l'ont précédé
+        sync();
+        buffer.putLong(syncedCycle).putShort((short) regDIV)
+                .put((byte) regTIMA).put((byte) regTMA).put((byte) regTAC);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see ch.epfl.gameboj.component.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        syncedCycle = buffer.getLong();
+        regDIV = Short.toUnsignedInt(buffer.getShort());
+        regTIMA = Byte.toUnsignedInt(buffer.get());
+        regTMA = Byte.toUnsignedInt(buffer.get());
+        regTAC = Byte.toUnsignedInt(buffer.get());
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see ch.epfl.gameboj.component.Stateful#copyStateFrom(ch.epfl.gameboj.component.Stateful)
+     */
+    @Override
+    public void copyStateFrom(Stateful other) {
+        Preconditions.checkArgument(other instanceof Timer);
+        Timer t = (Timer) other;
+
+        t.sync();
+        syncedCycle = t.syncedCycle;
+        regDIV = t.regDIV;
+        regTIMA = t.regTIMA;
+        regTMA = t.regTMA;
+        regTAC = t.regTAC;
+    }
+
+    /**
+     * reporte dans DIV et TIMA l'évolution du minuteur jusqu'au cycle en
+     * cours du bus compris, durant lequel le minuteur évolue avant les
+     * accès du processeur
+     */
+    private void sync() {
+        if (bus != null)
+            syncUntil(bus.currentCycle() + 1);
+    }
+
+    /**
+     * reporte dans DIV et TIMA l'évolution du minuteur durant les cycles qui
+     * précèdent le cycle donné
+     */
+    private void syncUntil(long cycle) {
+
+        if (cycle <= syncedCycle)
+            return;
+
+        long advance = (cycle - syncedCycle) * DIV_STEP;
+        syncedCycle = cycle;
+
+        if (Bits.test(regTAC, 2)) {
+            // un front descendant du bit choisi à chaque passage de DIV par
+            // un multiple de period
+            long period = 1L << (divBitIndex() + 1);
+            long edges = (regDIV % period + advance) / period;
+
+            while (edges > 0) {
+                long toOverflow = TIMA_OVERFLOW - regTIMA;
+                if (edges < toOverflow) {
+                    regTIMA += edges;
+                    break;
+                }
+                edges -= toOverflow;
+                overflow();
+            }
+        }
+        regDIV = (int) ((regDIV + advance) & 0xFFFF);
+    }
+
+    private int divBitIndex() {
 
         int divBitIndex = 0;
 
@@ -153,24 +295,33 @@ public final class Timer implements Component, Clocked {
             break;
         }
 
-        return Bits.test(regTAC, 2) && Bits.test(regDIV, divBitIndex);
+        return divBitIndex;
+    }
+
+    private boolean state() {
+
+        return Bits.test(regTAC, 2) && Bits.test(regDIV, divBitIndex());
     }
 
     private void incIfChange(boolean previousState) {
 
         if (previousState & !(state())) {
 
-            if (read(AddressMap.REG_TIMA) == 0xFF) {
-
-                timer.requestInterrupt(Interrupt.TIMER);
+            if (regTIMA == 0xFF) {
 
-                write(AddressMap.REG_TIMA, read(AddressMap.REG_TMA));
+                overflow();
 
             } else {
 
-                write(AddressMap.REG_TIMA, read(AddressMap.REG_TIMA) + 1);
+                ++regTIMA;
             }
 
         }
     }
-}
\ No newline at end of file
+
+    private void overflow() {
+
+        timer.requestInterrupt(Interrupt.TIMER);
+        regTIMA = regTMA;
+    }
+}
@@ -1,24 +1,27 @@
 package ch.epfl.gameboj.component.cartridge;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Banked;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Stateful;
 import ch.epfl.gameboj.component.memory.Rom;
+import ch.epfl.gameboj.component.memory.RomCache;
 
 /**
  * @author Alvaro Cauderan ( 282186)
  * @author Gauthier Boeshertz (283192) représente une cartouche
  */
-public final class Cartridge implements Component {
+public final class Cartridge implements Component, Stateful, Banked {
 
+    private final Rom rom;
     private final Component cartouche;
     private final static int RAM_SIZE = 0X149;
     private final static int RAM_TYPE = 0x147;
@@ -27,18 +30,22 @@ public final class Cartridge implements Component {
     /**
      * Construit une cartouche en lui attribuant un controleur
      * 
+     * @param rom
+     *            la mémoire morte du controleur
      * @param Controller
      *            donne la cartouche
      */
-    private Cartridge(Component Controller) {
+    private Cartridge(Rom rom, Component Controller) {
 
+        this.rom = rom;
         cartouche = Objects.requireNonNull(Controller);
 
     }
 
     /**
      * crée une cartouche dont la mémoire morte contient les octets du fichier
-     * donné
+     * donné, obtenue du cache partagé des mémoires mortes afin que toutes les
+     * cartouches d'un même fichier la partagent
      * 
      * @param romFile
      *            le fichier auquel la cartouche est égale
@@ -51,37 +58,135 @@ public final class Cartridge implements Component {
 
     public static Cartridge ofFile(File romFile) throws IOException {
 
-        // byte memoire[] = new byte[MEMORY_SIZE];
-        byte memoire[] = new byte[(int) romFile.length()];
-
         if (!romFile.exists()) {
             throw new IOException();
         }
 
-        try (InputStream stream = new FileInputStream(romFile)) {
-            memoire = stream.readAllBytes();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return ofRom(RomCache.shared().get(romFile));
+    }
 
+    /**
+     * crée une cartouche, avec son propre contrôleur de banque mémoire, dont
+     * la mémoire morte est celle donnée ; celle-ci n'est pas copiée et peut
+     * donc être partagée par plusieurs cartouches
+     * 
+     * @param rom
+     *            la mémoire morte de la cartouche
+     * @return la cartouche
+     * @throws NullPointerException
+     *             si la mémoire morte est nulle
+     * @throws IllegalArgumentException
+     *             si la mémoire morte ne correspond à aucun contrôleur
+     */
+    public static Cartridge ofRom(Rom rom) {
 
-        int mbcType = memoire[RAM_TYPE];
-        Rom rom = new Rom(memoire);
+        int mbcType = rom.read(RAM_TYPE);
         
         if (mbcType == 1 || mbcType == 2 | mbcType == 3) {
 
             MBC1 mbc1 = new MBC1(rom, RAM_SIZES[rom.read(RAM_SIZE)]);
-            return new Cartridge(mbc1);
+            return new Cartridge(rom, mbc1);
         }
 
         else {
             MBC0 mbc0 = new MBC0(rom);
-            return new Cartridge(mbc0);
+            return new Cartridge(rom, mbc0);
         }
 
     }
 
+    /**
+     * crée une cartouche qui partage la mémoire morte de celle-ci, avec son
+     * propre contrôleur dans son état initial ; son état peut ensuite être
+     * repris de celle-ci par copyStateFrom, qui partage sa mémoire vive en
+     * copie sur écriture
+     * 
+     * @return la nouvelle cartouche
+     */
+    public Cartridge blankCopy() {
+
+        return ofRom(rom);
+    }
+
+    /**
+     * retourne la somme de contrôle de la mémoire morte de la cartouche
+     * 
+     * @return la somme de contrôle CRC32 de la mémoire morte
+     */
+    public int romChecksum() {
+        return rom.checksum();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Banked#bankAt(int)
+     */
+    @Override
+    public int bankAt(int address) {
+        return cartouche instanceof Banked
+                ? ((Banked) cartouche).bankAt(address)
+                : address >>> 14;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Stateful#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        return cartouche instanceof Stateful
+                ? ((Stateful) cartouche).stateSize()
+                : 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        if (cartouche instanceof Stateful)
+            ((Stateful) cartouche).saveState(buffer);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        if (cartouche instanceof Stateful)
+            ((Stateful) cartouche).loadState(buffer);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Stateful#checkState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void checkState(ByteBuffer buffer) {
+        if (cartouche instanceof Stateful)
+            ((Stateful) cartouche).checkState(buffer);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Stateful#copyStateFrom(ch.epfl.gameboj.component.Stateful)
+     */
+    @Override
+    public void copyStateFrom(Stateful other) {
+        Preconditions.checkArgument(other instanceof Cartridge);
+        if (cartouche instanceof Stateful)
+            ((Stateful) cartouche)
+                    .copyStateFrom((Stateful) ((Cartridge) other).cartouche);
+    }
+
     /*
      * (non-Javadoc)
      * 
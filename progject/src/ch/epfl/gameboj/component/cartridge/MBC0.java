@@ -4,6 +4,7 @@ import java.lang.ModuleLayer.Controller;
 import java.util.Objects;
 
 import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Banked;
 import ch.epfl.gameboj.component.Component;
 import ch.epfl.gameboj.component.memory.Rom;
 
@@ -14,7 +15,7 @@ import ch.epfl.gameboj.component.memory.Rom;
  *         représente un contrôleur de banque mémoire de type 0, c-à-d doté
  *         uniquement d'une mémoire morte de 32 768 octets
  */
-public final class MBC0 implements Component {
+public final class MBC0 implements Component, Banked {
 
     private Rom controller;
     private final int ROM_SIZE = 32768;
@@ -66,4 +67,14 @@ Preconditions.checkArgument(rom.size() == ROM_SIZE);
     public void write(int address, int data) {
     }
 
-}
\ No newline at end of file
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Banked#bankAt(int)
+     */
+    @Override
+    public int bankAt(int address) {
+        return address >>> 14;
+    }
+
+}
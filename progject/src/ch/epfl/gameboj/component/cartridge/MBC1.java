@@ -3,12 +3,17 @@ package ch.epfl.gameboj.component.cartridge;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.nio.ByteBuffer;
+
+import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.Banked;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Stateful;
 import ch.epfl.gameboj.component.memory.Ram;
 import ch.epfl.gameboj.component.memory.Rom;
 
-public final class MBC1 implements Component {
+public final class MBC1 implements Component, Stateful, Banked {
     private static final int RAM_ENABLE = 0xA;
 
     private enum Mode { MODE_0, MODE_1 };
@@ -70,6 +75,57 @@ public final class MBC1 implements Component {
         }
     }
 
+    @Override
+    public int bankAt(int address) {
+        int bank = address < 0x4000 ? msb2() << 5 : ramRom2 << 5 | romLsb5;
+        return bank & (romMask >>> 14);
+    }
+
+    @Override
+    public int stateSize() {
+        // RAM activée, mode, registres de banques, mémoire vive
+        return 4 + ram.stateSize();
+    }
+
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) (ramEnabled ? 1 : 0)).put((byte) mode.ordinal())
+                .put((byte) romLsb5).put((byte) ramRom2);
+        ram.saveState(buffer);
+    }
+
+    @Override
+    public void checkState(ByteBuffer buffer) {
+        byte enabled = buffer.get(), m = buffer.get();
+        int lsb5 = buffer.get(), rom2 = buffer.get();
+        Preconditions.checkArgument((enabled == 0 || enabled == 1)
+                && m >= 0 && m < Mode.values().length
+                && lsb5 >= 1 && lsb5 <= 0x1F && rom2 >= 0 && rom2 <= 0x3);
+        ram.checkState(buffer);
+    }
+
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        // rien n'est modifié si l'état est invalide
+        checkState(buffer.duplicate());
+        ramEnabled = buffer.get() != 0;
+        mode = Mode.values()[buffer.get()];
+        romLsb5 = buffer.get();
+        ramRom2 = buffer.get();
+        ram.loadState(buffer);
+    }
+
+    @Override
+    public void copyStateFrom(Stateful other) {
+        Preconditions.checkArgument(other instanceof MBC1);
+        MBC1 mbc1 = (MBC1) other;
+        ramEnabled = mbc1.ramEnabled;
+        mode = mbc1.mode;
+        romLsb5 = mbc1.romLsb5;
+        ramRom2 = mbc1.ramRom2;
+        ram.copyStateFrom(mbc1.ram);
+    }
+
     private int msb2() {
         switch (mode) {
         case MODE_0: return 0;
@@ -0,0 +1,296 @@
+package ch.epfl.gameboj.component.cpu;
+
+import java.util.Objects;
+
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.cpu.Alu.RotDir;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Donne les mêmes résultats que les opérations 8 bits de l'Alu, lus
+ *         dans des tables précalculées avec l'Alu elle-même pour toutes les
+ *         combinaisons d'arguments. Les paquets valeur/fanions de ces
+ *         opérations tiennent sur 16 bits et sont donc stockés dans des
+ *         tableaux de char (128 Ko par opération binaire, le double pour
+ *         l'addition et la soustraction qui dépendent de la retenue).
+ *
+ *         Les tables ne sont construites et utilisées que si la propriété
+ *         système gameboj.aluTables vaut true ; sinon, chaque méthode appelle
+ *         simplement la méthode correspondante de l'Alu.
+ */
+final class AluTables {
+
+    /**
+     * vrai ssi les tables sont utilisées
+     */
+    static final boolean ENABLED = Boolean.getBoolean("gameboj.aluTables");
+
+    private static final int VALUES = 256;
+
+    private AluTables() {
+    }
+
+    /**
+     * Tables construites au premier accès, donc seulement si elles sont
+     * utilisées
+     */
+    static final class Tables {
+
+        static final char[] ADD = binary((l, r, c) -> Alu.add(l, r, c));
+        static final char[] SUB = binary((l, r, c) -> Alu.sub(l, r, c));
+        static final char[] AND = carryFree(Alu::and);
+        static final char[] OR = carryFree(Alu::or);
+        static final char[] XOR = carryFree(Alu::xor);
+
+        static final char[] SHIFT_LEFT = unary(Alu::shiftLeft);
+        static final char[] SHIFT_RIGHT_A = unary(Alu::shiftRightA);
+        static final char[] SHIFT_RIGHT_L = unary(Alu::shiftRightL);
+        static final char[] SWAP = unary(Alu::swap);
+        static final char[] ROTATE_LEFT = unary(
+                v -> Alu.rotate(RotDir.LEFT, v));
+        static final char[] ROTATE_RIGHT = unary(
+                v -> Alu.rotate(RotDir.RIGHT, v));
+        static final char[] ROTATE_LEFT_C = withCarry(
+                (v, c) -> Alu.rotate(RotDir.LEFT, v, c));
+        static final char[] ROTATE_RIGHT_C = withCarry(
+                (v, c) -> Alu.rotate(RotDir.RIGHT, v, c));
+        static final char[] BCD_ADJUST = bcdAdjust();
+        static final char[] TEST_BIT = testBit();
+
+        @FunctionalInterface
+        private interface BinaryOp {
+            int apply(int l, int r, boolean c);
+        }
+
+        @FunctionalInterface
+        private interface CarryFreeOp {
+            int apply(int l, int r);
+        }
+
+        @FunctionalInterface
+        private interface UnaryOp {
+            int apply(int v);
+        }
+
+        @FunctionalInterface
+        private interface CarryOp {
+            int apply(int v, boolean c);
+        }
+
+        private static char[] binary(BinaryOp op) {
+            char[] table = new char[2 * VALUES * VALUES];
+            for (int c = 0; c < 2; ++c)
+                for (int l = 0; l < VALUES; ++l)
+                    for (int r = 0; r < VALUES; ++r)
+                        table[binaryIndex(l, r, c == 1)] = (char) op.apply(l,
+                                r, c == 1);
+            return table;
+        }
+
+        private static char[] carryFree(CarryFreeOp op) {
+            char[] table = new char[VALUES * VALUES];
+            for (int l = 0; l < VALUES; ++l)
+                for (int r = 0; r < VALUES; ++r)
+                    table[pairIndex(l, r)] = (char) op.apply(l, r);
+            return table;
+        }
+
+        private static char[] unary(UnaryOp op) {
+            char[] table = new char[VALUES];
+            for (int v = 0; v < VALUES; ++v)
+                table[v] = (char) op.apply(v);
+            return table;
+        }
+
+        private static char[] withCarry(CarryOp op) {
+            char[] table = new char[2 * VALUES];
+            for (int c = 0; c < 2; ++c)
+                for (int v = 0; v < VALUES; ++v)
+                    table[c * VALUES + v] = (char) op.apply(v, c == 1);
+            return table;
+        }
+
+        private static char[] bcdAdjust() {
+            char[] table = new char[8 * VALUES];
+            for (int nhc = 0; nhc < 8; ++nhc)
+                for (int v = 0; v < VALUES; ++v) {
+                    boolean n = (nhc & 4) != 0, h = (nhc & 2) != 0,
+                            c = (nhc & 1) != 0;
+                    table[bcdIndex(v, n, h, c)] = (char) Alu.bcdAdjust(v, n,
+                            h, c);
+                }
+            return table;
+        }
+
+        private static char[] testBit() {
+            char[] table = new char[8 * VALUES];
+            for (int b = 0; b < 8; ++b)
+                for (int v = 0; v < VALUES; ++v)
+                    table[bitIndex(v, b)] = (char) Alu.testBit(v, b);
+            return table;
+        }
+    }
+
+    static int pairIndex(int l, int r) {
+        return l << 8 | r;
+    }
+
+    static int binaryIndex(int l, int r, boolean c) {
+        return (c ? VALUES * VALUES : 0) | pairIndex(l, r);
+    }
+
+    static int carryIndex(int v, boolean c) {
+        return (c ? VALUES : 0) | v;
+    }
+
+    static int bcdIndex(int v, boolean n, boolean h, boolean c) {
+        return ((n ? 4 : 0) | (h ? 2 : 0) | (c ? 1 : 0)) * VALUES + v;
+    }
+
+    static int bitIndex(int v, int bitIndex) {
+        return bitIndex * VALUES + v;
+    }
+
+    /**
+     * @see Alu#add(int, int, boolean)
+     */
+    static int add(int l, int r, boolean c0) {
+        if (!ENABLED)
+            return Alu.add(l, r, c0);
+        return Tables.ADD[binaryIndex(Preconditions.checkBits8(l),
+                Preconditions.checkBits8(r), c0)];
+    }
+
+    /**
+     * @see Alu#add(int, int)
+     */
+    static int add(int l, int r) {
+        return add(l, r, false);
+    }
+
+    /**
+     * @see Alu#sub(int, int, boolean)
+     */
+    static int sub(int l, int r, boolean b0) {
+        if (!ENABLED)
+            return Alu.sub(l, r, b0);
+        return Tables.SUB[binaryIndex(Preconditions.checkBits8(l),
+                Preconditions.checkBits8(r), b0)];
+    }
+
+    /**
+     * @see Alu#sub(int, int)
+     */
+    static int sub(int l, int r) {
+        return sub(l, r, false);
+    }
+
+    /**
+     * @see Alu#and(int, int)
+     */
+    static int and(int l, int r) {
+        if (!ENABLED)
+            return Alu.and(l, r);
+        return Tables.AND[pairIndex(Preconditions.checkBits8(l),
+                Preconditions.checkBits8(r))];
+    }
+
+    /**
+     * @see Alu#or(int, int)
+     */
+    static int or(int l, int r) {
+        if (!ENABLED)
+            return Alu.or(l, r);
+        return Tables.OR[pairIndex(Preconditions.checkBits8(l),
+                Preconditions.checkBits8(r))];
+    }
+
+    /**
+     * @see Alu#xor(int, int)
+     */
+    static int xor(int l, int r) {
+        if (!ENABLED)
+            return Alu.xor(l, r);
+        return Tables.XOR[pairIndex(Preconditions.checkBits8(l),
+                Preconditions.checkBits8(r))];
+    }
+
+    /**
+     * @see Alu#bcdAdjust(int, boolean, boolean, boolean)
+     */
+    static int bcdAdjust(int v, boolean n, boolean h, boolean c) {
+        if (!ENABLED)
+            return Alu.bcdAdjust(v, n, h, c);
+        return Tables.BCD_ADJUST[bcdIndex(Preconditions.checkBits8(v), n, h,
+                c)];
+    }
+
+    /**
+     * @see Alu#shiftLeft(int)
+     */
+    static int shiftLeft(int v) {
+        if (!ENABLED)
+            return Alu.shiftLeft(v);
+        return Tables.SHIFT_LEFT[Preconditions.checkBits8(v)];
+    }
+
+    /**
+     * @see Alu#shiftRightA(int)
+     */
+    static int shiftRightA(int v) {
+        if (!ENABLED)
+            return Alu.shiftRightA(v);
+        return Tables.SHIFT_RIGHT_A[Preconditions.checkBits8(v)];
+    }
+
+    /**
+     * @see Alu#shiftRightL(int)
+     */
+    static int shiftRightL(int v) {
+        if (!ENABLED)
+            return Alu.shiftRightL(v);
+        return Tables.SHIFT_RIGHT_L[Preconditions.checkBits8(v)];
+    }
+
+    /**
+     * @see Alu#rotate(RotDir, int)
+     */
+    static int rotate(RotDir d, int v) {
+        if (!ENABLED)
+            return Alu.rotate(d, v);
+        return (d == RotDir.LEFT ? Tables.ROTATE_LEFT
+                : Tables.ROTATE_RIGHT)[Preconditions.checkBits8(v)];
+    }
+
+    /**
+     * @see Alu#rotate(RotDir, int, boolean)
+     */
+    static int rotate(RotDir d, int v, boolean c) {
+        if (!ENABLED)
+            return Alu.rotate(d, v, c);
+        return (d == RotDir.LEFT ? Tables.ROTATE_LEFT_C
+                : Tables.ROTATE_RIGHT_C)[carryIndex(
+                        Preconditions.checkBits8(v), c)];
+    }
+
+    /**
+     * @see Alu#swap(int)
+     */
+    static int swap(int v) {
+        if (!ENABLED)
+            return Alu.swap(v);
+        return Tables.SWAP[Preconditions.checkBits8(v)];
+    }
+
+    /**
+     * @see Alu#testBit(int, int)
+     */
+    static int testBit(int v, int bitIndex) {
+        if (!ENABLED)
+            return Alu.testBit(v, bitIndex);
+        return Tables.TEST_BIT[bitIndex(Preconditions.checkBits8(v),
+                Objects.checkIndex(bitIndex, 8))];
+    }
+}
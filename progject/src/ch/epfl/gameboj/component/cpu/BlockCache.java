@@ -0,0 +1,253 @@
+package ch.epfl.gameboj.component.cpu;
+
+import java.util.Arrays;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.component.Banked;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Garde les blocs de base déjà décodés par le processeur : pour
+ *         chaque instruction d'un bloc, l'index de son opcode dans les tables
+ *         du processeur, ce qui évite de relire et de décoder l'opcode à
+ *         chaque exécution. Les opérandes sont toujours lus sur le bus.
+ *
+ *         Un bloc commence à une adresse donnée et s'arrête à la première
+ *         instruction qui change le compteur de programme de façon
+ *         inconditionnelle, ou avant la première instruction qui déborde de
+ *         sa page de 256 octets. Les blocs en mémoire morte sont identifiés
+ *         par leur banque et leur adresse, ceux de la mémoire vive de travail
+ *         et de la mémoire haute par leur adresse ; ces derniers sont oubliés
+ *         dès qu'un octet de leur page est écrit. Le code des autres zones
+ *         est lu à chaque exécution.
+ *
+ *         Les blocs ne sont utilisés que si la propriété système
+ *         gameboj.blocks vaut true.
+ */
+final class BlockCache {
+
+    /**
+     * vrai ssi les processeurs gardent les blocs décodés
+     */
+    static final boolean ENABLED = Boolean.getBoolean("gameboj.blocks");
+
+    private static final int PREFIX = 0xCB;
+    private static final int PREFIXED_OFFSET = 256;
+    private static final int PAGE_SIZE = 256;
+    private static final int BANK_SIZE = 0x4000;
+    private static final int ROM_END = 2 * BANK_SIZE;
+    private static final int MAX_LENGTH = 64;
+
+    /**
+     * suite d'instructions décodées
+     */
+    private static final class Block {
+        private final int[] addresses;
+        private final int[] indices;
+
+        private Block(int[] addresses, int[] indices) {
+            this.addresses = addresses;
+            this.indices = indices;
+        }
+    }
+
+    private final Bus bus;
+    private final Banked romBanks;
+    private final Opcode[] opcodes;
+
+    // blocs en mémoire morte, par banque (décalée de 1 pour BOOT_BANK) puis
+    // par adresse dans la banque
+    private Block[][] romBlocks = new Block[0][];
+    // blocs en mémoire vive, par page puis par adresse dans la page
+    private final Block[][] ramBlocks = new Block[(AddressMap.WORK_RAM_SIZE
+            + AddressMap.HIGH_RAM_SIZE + PAGE_SIZE - 1) / PAGE_SIZE][];
+
+    private Block block = null;
+    private int position = 0;
+
+    /**
+     * construit un cache vide
+     *
+     * @param bus
+     *            le bus sur lequel le code est lu
+     * @param romBanks
+     *            donne les banques de mémoire morte visibles, ou null si elles
+     *            sont inconnues, auquel cas le code en mémoire morte n'est
+     *            pas gardé
+     * @param opcodes
+     *            la table des opcodes du processeur, indexée par l'encodage
+     *            et par 256 plus l'encodage pour les instructions préfixées
+     */
+    BlockCache(Bus bus, Banked romBanks, Opcode[] opcodes) {
+        this.bus = bus;
+        this.romBanks = romBanks;
+        this.opcodes = opcodes;
+    }
+
+    /**
+     * retourne vrai ssi une écriture à l'adresse donnée peut changer le code
+     * gardé ou la banque visible, et doit donc être signalée à written
+     *
+     * @param address
+     *            l'adresse
+     * @return vrai ssi l'adresse doit être surveillée
+     */
+    static boolean isWatched(int address) {
+        return address < ROM_END || address == AddressMap.REG_BOOT_ROM_DISABLE
+                || ramAddress(address) >= 0;
+    }
+
+    /**
+     * retourne l'index, dans les tables du processeur, de l'instruction à
+     * l'adresse donnée
+     *
+     * @param pc
+     *            l'adresse de l'instruction
+     * @return l'index de l'instruction
+     */
+    int indexAt(int pc) {
+        if (block != null && position < block.addresses.length
+                && block.addresses[position] == pc)
+            return block.indices[position++];
+
+        block = blockAt(pc);
+        if (block == null)
+            return fetch(pc);
+
+        position = 1;
+        return block.indices[0];
+    }
+
+    /**
+     * signale une écriture à l'adresse donnée, qui peut rendre invalides les
+     * blocs de sa page ou changer la banque visible
+     *
+     * @param address
+     *            l'adresse écrite
+     */
+    void written(int address) {
+        int ram = ramAddress(address);
+        if (ram >= 0) {
+            if (ramBlocks[ram / PAGE_SIZE] == null)
+                return;
+            ramBlocks[ram / PAGE_SIZE] = null;
+        }
+        block = null;
+    }
+
+    /**
+     * oublie tous les blocs en mémoire vive et le bloc en cours, par exemple
+     * lorsque l'état de la gameboy est restauré
+     */
+    void clear() {
+        Arrays.fill(ramBlocks, null);
+        block = null;
+    }
+
+    private Block blockAt(int pc) {
+        Block[] blocks;
+        int offset;
+        if (pc >= 0 && pc < ROM_END) {
+            if (romBanks == null)
+                return null;
+            blocks = romBank(romBanks.bankAt(pc));
+            offset = pc % BANK_SIZE;
+        } else {
+            int ram = ramAddress(pc);
+            if (ram < 0)
+                return null;
+            if (ramBlocks[ram / PAGE_SIZE] == null)
+                ramBlocks[ram / PAGE_SIZE] = new Block[PAGE_SIZE];
+            blocks = ramBlocks[ram / PAGE_SIZE];
+            offset = ram % PAGE_SIZE;
+        }
+
+        Block b = blocks[offset];
+        if (b == null) {
+            b = decode(pc);
+            blocks[offset] = b;
+        }
+        return b.addresses.length == 0 ? null : b;
+    }
+
+    private Block[] romBank(int bank) {
+        int i = bank - Banked.BOOT_BANK;
+        if (i >= romBlocks.length)
+            romBlocks = Arrays.copyOf(romBlocks, i + 1);
+        if (romBlocks[i] == null)
+            romBlocks[i] = new Block[BANK_SIZE];
+        return romBlocks[i];
+    }
+
+    private Block decode(int start) {
+        int[] addresses = new int[MAX_LENGTH];
+        int[] indices = new int[MAX_LENGTH];
+        int pageEnd = (start / PAGE_SIZE + 1) * PAGE_SIZE;
+        int length = 0;
+        int pc = start;
+
+        while (length < MAX_LENGTH) {
+            if (pc >= pageEnd)
+                break;
+            int index = fetch(pc);
+            Opcode opcode = opcodes[index];
+            if (opcode == null || pc + opcode.totalBytes > pageEnd)
+                break;
+
+            addresses[length] = pc;
+            indices[length] = index;
+            ++length;
+            pc += opcode.totalBytes;
+
+            if (endsBlock(opcode))
+                break;
+        }
+        return new Block(Arrays.copyOf(addresses, length),
+                Arrays.copyOf(indices, length));
+    }
+
+    private int fetch(int pc) {
+        int encoding = bus.read(pc);
+        return encoding == PREFIX ? PREFIXED_OFFSET + bus.read(pc + 1)
+                : encoding;
+    }
+
+    private static boolean endsBlock(Opcode opcode) {
+        switch (opcode.family) {
+        case JP_HL:
+        case JP_N16:
+        case JR_E8:
+        case CALL_N16:
+        case RST_U3:
+        case RET:
+        case RETI:
+        case HALT:
+        case STOP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * retourne l'adresse dans la mémoire vive de travail (0 à 1FFF, l'écho
+     * y étant ramené) ou dans la mémoire haute (2000 et suivantes) de
+     * l'adresse donnée, ou -1 si elle n'est dans aucune des deux
+     */
+    private static int ramAddress(int address) {
+        if (address >= AddressMap.WORK_RAM_START
+                && address < AddressMap.WORK_RAM_END)
+            return address - AddressMap.WORK_RAM_START;
+        if (address >= AddressMap.ECHO_RAM_START
+                && address < AddressMap.ECHO_RAM_END)
+            return address - AddressMap.ECHO_RAM_START;
+        if (address >= AddressMap.HIGH_RAM_START
+                && address < AddressMap.HIGH_RAM_END)
+            return AddressMap.WORK_RAM_SIZE + address
+                    - AddressMap.HIGH_RAM_START;
+        return -1;
+    }
+}
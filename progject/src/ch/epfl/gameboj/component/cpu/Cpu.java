@@ -5,28 +5,32 @@ import ch.epfl.gameboj.component.cpu.Alu;
 import ch.epfl.gameboj.component.cpu.Alu.Flag;
 import ch.epfl.gameboj.component.cpu.Alu.RotDir;
 import ch.epfl.gameboj.component.memory.Ram;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.Register;
-import ch.epfl.gameboj.RegisterFile;
 import ch.epfl.gameboj.bits.Bit;
 import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.Banked;
 import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Stateful;
 
 /**
  * @author Alvaro Cauderan ( 282186)
  * @author Gauthier Boeshertz (283192) représente le processeur de la gameboy
  */
 
-public final class Cpu implements Component, Clocked {
-    private static final Opcode[] DIRECT_OPCODE_TABLE = buildOpcodeTable(
-            Opcode.Kind.DIRECT);
-    private static final Opcode[] PREFIXED_OPCODE_TABLE = buildOpcodeTable(
-            Opcode.Kind.PREFIXED);
-
+public final class Cpu implements Component, Clocked, Stateful {
     private Bus bus;
+    private final Banked romBanks;
+    private final boolean keepBlocks;
+    private BlockCache blocks = null;
     private Ram highRam = new Ram(AddressMap.HIGH_RAM_SIZE);
 
     private long nextNonIdleCycle;
@@ -37,6 +41,26 @@ public final class Cpu implements Component, Clocked {
     private int IE = 0;
     private int IF = 0;
 
+    // *Boucles d'attente* : état du processeur après le dernier saut en
+    // arrière court, et cycle auquel le tour suivant a commencé ; un tour
+    // qui se termine dans le même état, sans avoir écrit ni lu d'adresse
+    // dont la valeur change sans qu'un composant n'évolue, est une boucle
+    // d'attente de période idlePeriod
+    private static final int IDLE_LOOP_BYTES = 16;
+    private final int[] loopRegs = new int[Reg.values().length];
+    private int loopPC = -1;
+    private int loopSP;
+    private boolean loopIME;
+    private int loopIE;
+    private int loopIF;
+    private long loopStart;
+    private long previousLoopStart;
+    private boolean loopClean = false;
+    private long idlePeriod = 0;
+    // vrai ssi le dernier cycle a écrit ailleurs qu'en mémoire vive, et a
+    // donc pu changer le moment où un autre composant évolue
+    private boolean wroteComponent = false;
+
     public enum Reg implements Register {
         A, F, B, C, D, E, H, L
     };
@@ -63,40 +87,153 @@ public final class Cpu implements Component, Clocked {
         V0, V1, ALU, CPU
     };
 
-    private RegisterFile<Register> reg8 = new RegisterFile<>(Reg.values());
+    /**
+     * instruction décodée, dont les opérandes tirés de l'opcode sont déjà
+     * connus
+     */
+    @FunctionalInterface
+    private interface Handler {
+
+        /**
+         * exécute l'instruction sur le processeur donné
+         * 
+         * @param cpu
+         *            le processeur
+         * @param nextPC
+         *            l'adresse de l'instruction suivante
+         * @return la nouvelle valeur du compteur de programme
+         */
+        int execute(Cpu cpu, int nextPC);
+    }
+
+    private static final Reg[] ALL_REGS = Reg.values();
+    private static final int A = Reg.A.index(), F = Reg.F.index();
+
+    // masques des fanions de chaque famille d'instructions, voir flagMasks
+    private static final int INC_FLAGS = flagMasks(FlagSrc.ALU, FlagSrc.V0,
+            FlagSrc.ALU, FlagSrc.CPU);
+    private static final int DEC_FLAGS = flagMasks(FlagSrc.ALU, FlagSrc.V1,
+            FlagSrc.ALU, FlagSrc.CPU);
+    private static final int ADD16_FLAGS = flagMasks(FlagSrc.CPU, FlagSrc.V0,
+            FlagSrc.ALU, FlagSrc.ALU);
+    private static final int ADD_SP_FLAGS = flagMasks(FlagSrc.V0, FlagSrc.V0,
+            FlagSrc.ALU, FlagSrc.ALU);
+    private static final int CPL_FLAGS = flagMasks(FlagSrc.CPU, FlagSrc.V1,
+            FlagSrc.V1, FlagSrc.CPU);
+    private static final int ROTA_FLAGS = flagMasks(FlagSrc.V0, FlagSrc.V0,
+            FlagSrc.V0, FlagSrc.ALU);
+    private static final int BIT_FLAGS = flagMasks(FlagSrc.ALU, FlagSrc.V0,
+            FlagSrc.V1, FlagSrc.CPU);
+    private static final int DAA_FLAGS = flagMasks(FlagSrc.ALU, FlagSrc.CPU,
+            FlagSrc.V0, FlagSrc.ALU);
+    private static final int CCF_FLAGS = flagMasks(FlagSrc.CPU, FlagSrc.V0,
+            FlagSrc.V0, FlagSrc.ALU);
+    private static final int SCF_FLAGS = flagMasks(FlagSrc.CPU, FlagSrc.V0,
+            FlagSrc.V0, FlagSrc.V1);
+
+    private static final int PREFIXED_OFFSET = 256;
+    private static final Opcode[] OPCODE_TABLE = buildOpcodeTable();
+    private static final Handler[] HANDLER_TABLE = buildHandlerTable();
+
+    /**
+     * registres 8 bits, indexés par l'index de Reg ; toutes les valeurs
+     * écrites par le processeur tiennent sur 8 bits, elles ne sont donc pas
+     * vérifiées
+     */
+    private final int[] regs = new int[ALL_REGS.length];
 
     public int[] _testGetPcSpAFBCDEHL() {
         
         int Regs[] = new int[10];
         Regs[0] = PC;
         Regs[1] = SP;
-        Regs[2] = reg8.get(Reg.A);
-        Regs[3] = reg8.get(Reg.F);
-        Regs[4] = reg8.get(Reg.B);
-        Regs[5] = reg8.get(Reg.C);
-        Regs[6] = reg8.get(Reg.D);
-        Regs[7] = reg8.get(Reg.E);
-        Regs[8] = reg8.get(Reg.H);
-        Regs[9] = reg8.get(Reg.L);
+        Regs[2] = get8(Reg.A);
+        Regs[3] = get8(Reg.F);
+        Regs[4] = get8(Reg.B);
+        Regs[5] = get8(Reg.C);
+        Regs[6] = get8(Reg.D);
+        Regs[7] = get8(Reg.E);
+        Regs[8] = get8(Reg.H);
+        Regs[9] = get8(Reg.L);
         
         return Regs;
     }
 
+    /**
+     * construit un processeur qui ne connaît pas les banques de la mémoire
+     * morte, et ne garde donc pas les blocs décodés qui s'y trouvent
+     */
     public Cpu() {
+        this(null);
     }
 
-    private static Opcode[] buildOpcodeTable(Opcode.Kind opKind) {
+    /**
+     * construit un processeur qui, si la propriété système gameboj.blocks
+     * vaut true, garde les blocs d'instructions qu'il a décodés
+     * 
+     * @param romBanks
+     *            donne les banques visibles de la mémoire morte, qui
+     *            identifient les blocs qui s'y trouvent, ou null
+     */
+    public Cpu(Banked romBanks) {
+        this(romBanks, BlockCache.ENABLED);
+    }
+
+    /**
+     * construit un processeur qui garde ou non les blocs d'instructions qu'il
+     * a décodés, quelle que soit la propriété système gameboj.blocks
+     * 
+     * @param romBanks
+     *            donne les banques visibles de la mémoire morte, ou null
+     * @param keepBlocks
+     *            vrai ssi le processeur garde les blocs décodés
+     */
+    Cpu(Banked romBanks, boolean keepBlocks) {
+        this.romBanks = romBanks;
+        this.keepBlocks = keepBlocks;
+    }
 
-        Opcode[] opcodeTable = new Opcode[256];
+    /**
+     * construit la table des instructions, indexée par l'encodage de l'opcode
+     * pour les instructions directes et par 256 plus celui-ci pour les
+     * instructions préfixées
+     * 
+     * @return la table des 512 opcodes
+     */
+    private static Opcode[] buildOpcodeTable() {
+
+        Opcode[] opcodeTable = new Opcode[2 * PREFIXED_OFFSET];
 
         for (Opcode o : Opcode.values()) {
-            if (o.kind == opKind)
-                opcodeTable[o.encoding] = o;
+            opcodeTable[tableIndex(o)] = o;
         }
-        
+
         return opcodeTable;
     }
 
+    /**
+     * construit la table des instructions décodées, indexée comme celle des
+     * opcodes
+     * 
+     * @return la table des 512 instructions décodées, null pour les
+     *         encodages qui ne correspondent à aucune instruction
+     */
+    private static Handler[] buildHandlerTable() {
+
+        Handler[] handlerTable = new Handler[2 * PREFIXED_OFFSET];
+
+        for (Opcode o : Opcode.values()) {
+            handlerTable[tableIndex(o)] = handler(o);
+        }
+
+        return handlerTable;
+    }
+
+    private static int tableIndex(Opcode opcode) {
+        return (opcode.kind == Opcode.Kind.PREFIXED ? PREFIXED_OFFSET : 0)
+                + opcode.encoding;
+    }
+
     @Override
     /**
      * fait que le processeur évolue en lui faisaint éxectuer toutes les
@@ -107,6 +244,7 @@ public final class Cpu implements Component, Clocked {
      * 
      */
     public void cycle(long cycle) {
+        wroteComponent = false;
         if ((nextNonIdleCycle == Long.MAX_VALUE) && testIeIf()) {
 
             nextNonIdleCycle = cycle;
@@ -122,6 +260,111 @@ public final class Cpu implements Component, Clocked {
 
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Clocked#nextCycle(long)
+     */
+    @Override
+    public long nextCycle(long cycle) {
+        if (nextNonIdleCycle == Long.MAX_VALUE)
+            return testIeIf() ? cycle : Long.MAX_VALUE;
+
+        return nextNonIdleCycle >= cycle ? nextNonIdleCycle : Long.MAX_VALUE;
+    }
+
+    /**
+     * retourne vrai ssi le processeur a, durant le dernier appel à cycle,
+     * écrit ailleurs qu'en mémoire vive de travail ou haute, par exemple dans
+     * les registres du minuteur ou de l'écran, ce qui peut changer le
+     * prochain cycle durant lequel l'un d'eux évolue
+     * 
+     * @return vrai ssi le processeur a écrit dans un autre composant
+     */
+    public boolean wroteComponent() {
+        return wroteComponent;
+    }
+
+    /**
+     * retourne vrai ssi le processeur vient de terminer un tour d'une boucle
+     * d'attente, par exemple une boucle qui lit LY ou IF jusqu'à ce qu'ils
+     * changent, et se trouve au début du tour suivant
+     * 
+     * @return vrai ssi le processeur est dans une boucle d'attente
+     */
+    public boolean inIdleLoop() {
+        return idlePeriod != 0;
+    }
+
+    /**
+     * si le processeur est dans une boucle d'attente dont le dernier tour a
+     * commencé au plus tôt au cycle donné, le fait avancer d'un coup du plus
+     * grand nombre de tours qui se terminent au plus tard au cycle limite,
+     * comme s'il les avait exécutés ; aucun autre composant ne doit avoir
+     * évolué depuis le début du dernier tour ni évoluer avant le cycle
+     * limite, les tours lisent donc tous les mêmes valeurs
+     * 
+     * @param stableSince
+     *            le dernier cycle durant lequel un autre composant a évolué,
+     *            ou durant lequel la gameboy a pu être modifiée de
+     *            l'extérieur
+     * @param limit
+     *            le prochain cycle durant lequel un autre composant évolue
+     */
+    public void skipIdleLoop(long stableSince, long limit) {
+        if (idlePeriod != 0 && previousLoopStart >= stableSince
+                && limit > nextNonIdleCycle) {
+            long turns = (limit - nextNonIdleCycle) / idlePeriod;
+            nextNonIdleCycle += turns * idlePeriod;
+            loopStart = nextNonIdleCycle;
+        }
+        idlePeriod = 0;
+    }
+
+    /**
+     * appelé après chaque saut en arrière court : compare l'état du
+     * processeur à celui qu'il avait après le précédent
+     */
+    private void backwardJump() {
+        idlePeriod = 0;
+        if (loopClean && PC == loopPC && SP == loopSP && IME == loopIME
+                && IE == loopIE && IF == loopIF
+                && Arrays.equals(regs, loopRegs)) {
+            idlePeriod = nextNonIdleCycle - loopStart;
+        } else {
+            loopPC = PC;
+            loopSP = SP;
+            loopIME = IME;
+            loopIE = IE;
+            loopIF = IF;
+            System.arraycopy(regs, 0, loopRegs, 0, regs.length);
+        }
+        previousLoopStart = loopStart;
+        loopStart = nextNonIdleCycle;
+        loopClean = true;
+    }
+
+    /**
+     * retourne vrai ssi la valeur à l'adresse donnée ne peut changer que
+     * lorsqu'un composant évolue ou que le processeur écrit : toutes sauf
+     * l'OAM, copiée au fur et à mesure des lectures durant une copie DMA, et
+     * les registres du timer
+     */
+    private static boolean isStableAddress(int address) {
+        return (address < AddressMap.OAM_START || address >= AddressMap.OAM_END)
+                && (address < AddressMap.REG_DIV || address > AddressMap.REG_TAC);
+    }
+
+    /**
+     * oublie la boucle d'attente en cours, lorsque l'état du processeur est
+     * remplacé
+     */
+    private void resetIdleLoop() {
+        loopPC = -1;
+        loopClean = false;
+        idlePeriod = 0;
+    }
+
     public void reallyCycle() {
         if (IME && testIeIf()) {
 
@@ -135,648 +378,673 @@ public final class Cpu implements Component, Clocked {
 
         } else {
 
-            int suivant = bus.read(PC);
+            if (blocks != null) {
+                dispatch(blocks.indexAt(PC));
+                return;
+            }
 
-            Opcode OPsuivant;
+            int suivant = bus.read(PC);
 
             if (suivant == prefixed) {
-
-                suivant = bus.read(PC + 1);
-                OPsuivant = PREFIXED_OPCODE_TABLE[suivant];
-
-            } else {
-
-                OPsuivant = DIRECT_OPCODE_TABLE[suivant];
-
+                suivant = PREFIXED_OFFSET + bus.read(PC + 1);
             }
-            dispatch(OPsuivant);
+            dispatch(suivant);
         }
     }
 
     /**
-     * Lit l'opcode et éxécute l'instruction correspondante
+     * Exécute l'instruction d'index donné dans les tables, puis met à jour
+     * le compteur de programme et le prochain cycle
+     * 
+     * @param index
+     *            donne l'index de l'instruction dans les tables
+     */
+    private void dispatch(int index) {
+        Opcode opcode = OPCODE_TABLE[index];
+        int pc = PC;
+        PC = HANDLER_TABLE[index].execute(this, PC + opcode.totalBytes);
+        nextNonIdleCycle += opcode.cycles;
+        if (PC <= pc && pc - PC < IDLE_LOOP_BYTES)
+            backwardJump();
+    }
+
+    /**
+     * décode une fois pour toutes l'instruction donnée : ses opérandes
+     * (registres, bits, conditions, directions) sont extraits de l'encodage
+     * et liés à l'instruction retournée, qui n'a plus qu'à l'exécuter
      * 
      * @param opcode
      *            donne l'opcode de l'instruction
+     * @return l'instruction décodée
      */
-    private void dispatch(Opcode opcode) {
-        // System.out.println("PC: " + PC + " opcode: " + opcode.name());
+    private static Handler handler(Opcode opcode) {
 
-        int nextPC = PC + opcode.totalBytes;
-        boolean instructionDone = false;
+        int additionalCycles = opcode.additionalCycles;
 
         switch (opcode.family) {
-        case NOP: {
-
-        }
-
-            break;
+        case NOP:
+            return (cpu, next) -> next;
 
         case LD_R8_HLR: {
-
-            reg8.set(extractReg(opcode, 3), read8AtHl());
-            
+            int r = extractReg(opcode, 3).index();
+            return (cpu, next) -> {
+                cpu.regs[r] = cpu.read8AtHl();
+                return next;
+            };
         }
-
-            break;
-
         case LD_A_HLRU: {
-
-            int a = read8AtHl();
-
-            reg8.set(Reg.A, a);
-
-            setReg16(Reg16.HL, reg16(Reg16.HL) + extractHlIncrement(opcode));
-            
-        }
-
-            break;
-
-        case LD_A_N8R: {
-
-            reg8.set(Reg.A, read8(AddressMap.REGS_START + read8AfterOpcode()));
-            
-        }
-
-            break;
-
-        case LD_A_CR: {
-
-            reg8.set(Reg.A, read8(AddressMap.REGS_START + reg8.get(Reg.C)));
-            
-        }
-
-            break;
-
-        case LD_A_N16R: {
-
-            reg8.set(Reg.A, read8(read16AfterOpcode()));
-            
-        }
-
-            break;
-
-        case LD_A_BCR: {
-
-            reg8.set(Reg.A, read8(reg16(Reg16.BC)));
-            
-        }
-
-            break;
-
-        case LD_A_DER: {
-
-            reg8.set(Reg.A, read8(reg16(Reg16.DE)));
-        }
-
-            break;
-
+            int increment = extractHlIncrement(opcode);
+            return (cpu, next) -> {
+                cpu.regs[A] = cpu.read8AtHl();
+                cpu.setReg16(Reg16.HL, cpu.reg16(Reg16.HL) + increment);
+                return next;
+            };
+        }
+        case LD_A_N8R:
+            return (cpu, next) -> {
+                cpu.regs[A] = cpu
+                        .read8(AddressMap.REGS_START + cpu.read8AfterOpcode());
+                return next;
+            };
+        case LD_A_CR:
+            return (cpu, next) -> {
+                cpu.regs[A] = cpu
+                        .read8(AddressMap.REGS_START + cpu.regs[Reg.C.index()]);
+                return next;
+            };
+        case LD_A_N16R:
+            return (cpu, next) -> {
+                cpu.regs[A] = cpu.read8(cpu.read16AfterOpcode());
+                return next;
+            };
+        case LD_A_BCR:
+            return (cpu, next) -> {
+                cpu.regs[A] = cpu.read8(cpu.reg16(Reg16.BC));
+                return next;
+            };
+        case LD_A_DER:
+            return (cpu, next) -> {
+                cpu.regs[A] = cpu.read8(cpu.reg16(Reg16.DE));
+                return next;
+            };
         case LD_R8_N8: {
-
-            reg8.set(extractReg(opcode, 3), read8AfterOpcode());
-            
+            int r = extractReg(opcode, 3).index();
+            return (cpu, next) -> {
+                cpu.regs[r] = cpu.read8AfterOpcode();
+                return next;
+            };
         }
-
-            break;
-
         case LD_R16SP_N16: {
-
-            setReg16SP(extractReg16(opcode), read16AfterOpcode());
-            
+            Reg16 r = extractReg16(opcode);
+            return (cpu, next) -> {
+                cpu.setReg16SP(r, cpu.read16AfterOpcode());
+                return next;
+            };
         }
-
-            break;
-
         case POP_R16: {
-
-            setReg16(extractReg16(opcode), pop16());
-            
+            Reg16 r = extractReg16(opcode);
+            return (cpu, next) -> {
+                cpu.setReg16(r, cpu.pop16());
+                return next;
+            };
         }
-
-            break;
-
         case LD_HLR_R8: {
-
-            write8AtHl(reg8.get(extractReg(opcode, 0)));
-            
+            int r = extractReg(opcode, 0).index();
+            return (cpu, next) -> {
+                cpu.write8AtHl(cpu.regs[r]);
+                return next;
+            };
         }
-
-            break;
-
         case LD_HLRU_A: {
-
-            int hlvalue = reg16(Reg16.HL);
-
-            write8AtHl(reg8.get(Reg.A));
-
-            setReg16(Reg16.HL,
-
-                    Bits.clip(16, hlvalue + extractHlIncrement(opcode)));
-            
-        }
-
-            break;
-
-        case LD_N8R_A: {
-
-            write8(AddressMap.REGS_START + read8AfterOpcode(), reg8.get(Reg.A));
-            
-        }
-
-            break;
-
-        case LD_CR_A: {
-
-            write8(AddressMap.REGS_START + reg8.get(Reg.C), reg8.get(Reg.A));
-            
-        }
-
-            break;
-
-        case LD_N16R_A: {
-
-            write8(read16AfterOpcode(), reg8.get(Reg.A));
-            
-        }
-
-            break;
-
-        case LD_BCR_A: {
-
-            write8(reg16(Reg16.BC), reg8.get(Reg.A));
-            
-        }
-
-            break;
-
-        case LD_DER_A: {
-
-            write8(reg16(Reg16.DE), reg8.get(Reg.A));
-            
-        }
-
-            break;
-
-        case LD_HLR_N8: {
-
-            write8AtHl(read8AfterOpcode());
-            
-        }
-
-            break;
-
-        case LD_N16R_SP: {
-
-            write16(read16AfterOpcode(), SP);
-            
-        }
-
-            break;
-
+            int increment = extractHlIncrement(opcode);
+            return (cpu, next) -> {
+                int hlvalue = cpu.reg16(Reg16.HL);
+                cpu.write8AtHl(cpu.regs[A]);
+                cpu.setReg16(Reg16.HL, Bits.clip(16, hlvalue + increment));
+                return next;
+            };
+        }
+        case LD_N8R_A:
+            return (cpu, next) -> {
+                cpu.write8(AddressMap.REGS_START + cpu.read8AfterOpcode(),
+                        cpu.regs[A]);
+                return next;
+            };
+        case LD_CR_A:
+            return (cpu, next) -> {
+                cpu.write8(AddressMap.REGS_START + cpu.regs[Reg.C.index()],
+                        cpu.regs[A]);
+                return next;
+            };
+        case LD_N16R_A:
+            return (cpu, next) -> {
+                cpu.write8(cpu.read16AfterOpcode(), cpu.regs[A]);
+                return next;
+            };
+        case LD_BCR_A:
+            return (cpu, next) -> {
+                cpu.write8(cpu.reg16(Reg16.BC), cpu.regs[A]);
+                return next;
+            };
+        case LD_DER_A:
+            return (cpu, next) -> {
+                cpu.write8(cpu.reg16(Reg16.DE), cpu.regs[A]);
+                return next;
+            };
+        case LD_HLR_N8:
+            return (cpu, next) -> {
+                cpu.write8AtHl(cpu.read8AfterOpcode());
+                return next;
+            };
+        case LD_N16R_SP:
+            return (cpu, next) -> {
+                cpu.write16(cpu.read16AfterOpcode(), cpu.SP);
+                return next;
+            };
         case LD_R8_R8: {
-
-            reg8.set(extractReg(opcode, 3), reg8.get(extractReg(opcode, 0)));
-            
-        }
-
-            break;
-
-        case LD_SP_HL: {
-
-            SP = reg16(Reg16.HL);
-            
-        }
-
-            break;
-
+            int r = extractReg(opcode, 3).index();
+            int s = extractReg(opcode, 0).index();
+            return (cpu, next) -> {
+                cpu.regs[r] = cpu.regs[s];
+                return next;
+            };
+        }
+        case LD_SP_HL:
+            return (cpu, next) -> {
+                cpu.SP = cpu.reg16(Reg16.HL);
+                return next;
+            };
         case PUSH_R16: {
-
-            push16(reg16(extractReg16(opcode)));
-            ;
+            Reg16 r = extractReg16(opcode);
+            return (cpu, next) -> {
+                cpu.push16(cpu.reg16(r));
+                return next;
+            };
         }
 
-            break;
-
+        // Add
         case ADD_A_R8: {
-
-            int add = Alu.add(reg8.get(Reg.A), reg8.get(extractReg(opcode, 0)),
-                    carry1(opcode));
-
-            setRegFlags(Reg.A, add);
-            
+            int r = extractReg(opcode, 0).index();
+            boolean withCarry = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.add(cpu.regs[A], cpu.regs[r],
+                        withCarry && cpu.testFlag(Flag.C)));
+                return next;
+            };
         }
-            break;
         case ADD_A_N8: {
-            int add = Alu.add(reg8.get(Reg.A), read8AfterOpcode(),
-                    carry1(opcode));
-            setRegFlags(Reg.A, add);
-            
+            boolean withCarry = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.add(cpu.regs[A],
+                        cpu.read8AfterOpcode(),
+                        withCarry && cpu.testFlag(Flag.C)));
+                return next;
+            };
         }
-            break;
         case ADD_A_HLR: {
-
-            int add = Alu.add(reg8.get(Reg.A), read8AtHl(), carry1(opcode));
-            setRegFlags(Reg.A, add);
-            
-
+            boolean withCarry = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.add(cpu.regs[A], cpu.read8AtHl(),
+                        withCarry && cpu.testFlag(Flag.C)));
+                return next;
+            };
         }
-            break;
         case INC_R8: {
-            int add = Alu.add(reg8.get(extractReg(opcode, 3)), 1);
-            reg8.set(extractReg(opcode, 3), Alu.unpackValue(add));
-            combineAluFlags(add, FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU,
-                    FlagSrc.CPU);
-            
-        }
-            break;
-        case INC_HLR: {
-
-            int add = Alu.add(read8AtHl(), 1);
-            write8AtHl(Alu.unpackValue(add));
-            combineAluFlags(add, FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU,
-                    FlagSrc.CPU);
-            
-        }
-            break;
+            int r = extractReg(opcode, 3).index();
+            return (cpu, next) -> {
+                int add = AluTables.add(cpu.regs[r], 1);
+                cpu.regs[r] = Alu.unpackValue(add);
+                cpu.combineAluFlags(add, INC_FLAGS);
+                return next;
+            };
+        }
+        case INC_HLR:
+            return (cpu, next) -> {
+                int add = AluTables.add(cpu.read8AtHl(), 1);
+                cpu.write8AtHl(Alu.unpackValue(add));
+                cpu.combineAluFlags(add, INC_FLAGS);
+                return next;
+            };
         case INC_R16SP: {
-            ;
-
-            if (extractReg16(opcode) == Reg16.AF) {
-                setReg16SP(extractReg16(opcode), Bits.clip(16, SP + 1));
-            } else {
-                setReg16SP(extractReg16(opcode),
-                        Bits.clip(16, reg16(extractReg16(opcode)) + 1));
-            }
-
+            Reg16 r = extractReg16(opcode);
+            return (cpu, next) -> {
+                int regValue = r == Reg16.AF ? cpu.SP : cpu.reg16(r);
+                cpu.setReg16SP(r, Bits.clip(16, regValue + 1));
+                return next;
+            };
         }
-            break;
         case ADD_HL_R16SP: {
             Reg16 r = extractReg16(opcode);
-            int regValue = r == Reg16.AF ? SP : reg16(r);
-            int sum = Alu.add16H(reg16(Reg16.HL), regValue);
-            setReg16SP(Reg16.HL, Alu.unpackValue(sum));
-            combineAluFlags(sum, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU,
-                    FlagSrc.ALU);
+            return (cpu, next) -> {
+                int regValue = r == Reg16.AF ? cpu.SP : cpu.reg16(r);
+                int sum = Alu.add16H(cpu.reg16(Reg16.HL), regValue);
+                cpu.setReg16SP(Reg16.HL, Alu.unpackValue(sum));
+                cpu.combineAluFlags(sum, ADD16_FLAGS);
+                return next;
+            };
         }
-            break;
         case LD_HLSP_S8: {
-            int sum = Alu.add16L(SP,
-                    Bits.clip(16, Bits.signExtend8(read8AfterOpcode())));
-            if (Bits.test(opcode.encoding, 4)) {
-                setReg16(Reg16.HL, Alu.unpackValue(sum));
-            } else {
-                SP = Alu.unpackValue(sum);
-            }
-            combineAluFlags(sum, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU,
-                    FlagSrc.ALU);
+            boolean toHl = Bits.test(opcode.encoding, 4);
+            return (cpu, next) -> {
+                int sum = Alu.add16L(cpu.SP, Bits.clip(16,
+                        Bits.signExtend8(cpu.read8AfterOpcode())));
+                if (toHl) {
+                    cpu.setReg16(Reg16.HL, Alu.unpackValue(sum));
+                } else {
+                    cpu.SP = Alu.unpackValue(sum);
+                }
+                cpu.combineAluFlags(sum, ADD_SP_FLAGS);
+                return next;
+            };
         }
-            break;
 
         // Subtract
         case SUB_A_R8: {
-            int sub = Alu.sub(reg8.get(Reg.A), reg8.get(extractReg(opcode, 0)),
-                    carry1(opcode));
-            setRegFlags(Reg.A, sub);
+            int r = extractReg(opcode, 0).index();
+            boolean withBorrow = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.sub(cpu.regs[A], cpu.regs[r],
+                        withBorrow && cpu.testFlag(Flag.C)));
+                return next;
+            };
         }
-            break;
         case SUB_A_N8: {
-            int sub = Alu.sub(reg8.get(Reg.A), read8AfterOpcode(),
-                    carry1(opcode));
-            setRegFlags(Reg.A, sub);
+            boolean withBorrow = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.sub(cpu.regs[A],
+                        cpu.read8AfterOpcode(),
+                        withBorrow && cpu.testFlag(Flag.C)));
+                return next;
+            };
         }
-            break;
         case SUB_A_HLR: {
-            int sub = Alu.sub(reg8.get(Reg.A), read8AtHl(), carry1(opcode));
-            setRegFlags(Reg.A, sub);
+            boolean withBorrow = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.sub(cpu.regs[A], cpu.read8AtHl(),
+                        withBorrow && cpu.testFlag(Flag.C)));
+                return next;
+            };
         }
-            break;
         case DEC_R8: {
-            
-            int sub = Alu.sub(reg8.get(extractReg(opcode, 3)), 1);
-            reg8.set(extractReg(opcode, 3), Alu.unpackValue(sub));
-            combineAluFlags(sub, FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU,
-                    FlagSrc.CPU);
-        }
-            break;
-        case DEC_HLR: {
-            
-            int sub = Alu.sub(read8AtHl(), 1);
-            write8AtHl(Alu.unpackValue(sub));
-            combineAluFlags(sub, FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU,
-                    FlagSrc.CPU);
-        }
-            break;
+            int r = extractReg(opcode, 3).index();
+            return (cpu, next) -> {
+                int sub = AluTables.sub(cpu.regs[r], 1);
+                cpu.regs[r] = Alu.unpackValue(sub);
+                cpu.combineAluFlags(sub, DEC_FLAGS);
+                return next;
+            };
+        }
+        case DEC_HLR:
+            return (cpu, next) -> {
+                int sub = AluTables.sub(cpu.read8AtHl(), 1);
+                cpu.write8AtHl(Alu.unpackValue(sub));
+                cpu.combineAluFlags(sub, DEC_FLAGS);
+                return next;
+            };
         case CP_A_R8: {
-            int sub = Alu.sub(reg8.get(Reg.A), reg8.get(extractReg(opcode, 0)));
-            setFlags(sub);
-
-        }
-            break;
-        case CP_A_N8: {
-            
-            int sub = Alu.sub(reg8.get(Reg.A), read8AfterOpcode());
-            setFlags(sub);
-        }
-            break;
-        case CP_A_HLR: {
-            int sub = Alu.sub(reg8.get(Reg.A), read8AtHl());
-            setFlags(sub);
-        }
-            break;
+            int r = extractReg(opcode, 0).index();
+            return (cpu, next) -> {
+                cpu.setFlags(AluTables.sub(cpu.regs[A], cpu.regs[r]));
+                return next;
+            };
+        }
+        case CP_A_N8:
+            return (cpu, next) -> {
+                cpu.setFlags(
+                        AluTables.sub(cpu.regs[A], cpu.read8AfterOpcode()));
+                return next;
+            };
+        case CP_A_HLR:
+            return (cpu, next) -> {
+                cpu.setFlags(AluTables.sub(cpu.regs[A], cpu.read8AtHl()));
+                return next;
+            };
         case DEC_R16SP: {
             Reg16 r = extractReg16(opcode);
-            int regValue = r == Reg16.AF ? SP : reg16(r);
-            setReg16SP(r, Bits.clip(16, regValue - 1));
+            return (cpu, next) -> {
+                int regValue = r == Reg16.AF ? cpu.SP : cpu.reg16(r);
+                cpu.setReg16SP(r, Bits.clip(16, regValue - 1));
+                return next;
+            };
         }
-            break;
 
         // And, or, xor, complement
-        case AND_A_N8: {
-            setRegFlags(Reg.A, Alu.and(reg8.get(Reg.A), read8AfterOpcode()));
-        }
-            break;
+        case AND_A_N8:
+            return (cpu, next) -> {
+                cpu.setRegFlags(A,
+                        AluTables.and(cpu.regs[A], cpu.read8AfterOpcode()));
+                return next;
+            };
         case AND_A_R8: {
-            setRegFlags(Reg.A,
-                    Alu.and(reg8.get(Reg.A), reg8.get(extractReg(opcode, 0))));
-        }
-            break;
-        case AND_A_HLR: {
-            setRegFlags(Reg.A, Alu.and(reg8.get(Reg.A), read8AtHl()));
-        }
-            break;
+            int r = extractReg(opcode, 0).index();
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.and(cpu.regs[A], cpu.regs[r]));
+                return next;
+            };
+        }
+        case AND_A_HLR:
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.and(cpu.regs[A], cpu.read8AtHl()));
+                return next;
+            };
         case OR_A_R8: {
-            setRegFlags(Reg.A,
-                    Alu.or(reg8.get(Reg.A), reg8.get(extractReg(opcode, 0))));
-        }
-            break;
-        case OR_A_N8: {
-            setRegFlags(Reg.A, Alu.or(reg8.get(Reg.A), read8AfterOpcode()));
-        }
-            break;
-        case OR_A_HLR: {
-            setRegFlags(Reg.A, Alu.or(reg8.get(Reg.A), read8AtHl()));
-        }
-            break;
+            int r = extractReg(opcode, 0).index();
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.or(cpu.regs[A], cpu.regs[r]));
+                return next;
+            };
+        }
+        case OR_A_N8:
+            return (cpu, next) -> {
+                cpu.setRegFlags(A,
+                        AluTables.or(cpu.regs[A], cpu.read8AfterOpcode()));
+                return next;
+            };
+        case OR_A_HLR:
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.or(cpu.regs[A], cpu.read8AtHl()));
+                return next;
+            };
         case XOR_A_R8: {
-            setRegFlags(Reg.A,
-                    Alu.xor(reg8.get(Reg.A), reg8.get(extractReg(opcode, 0))));
-        }
-            break;
-        case XOR_A_N8: {
-            setRegFlags(Reg.A, Alu.xor(reg8.get(Reg.A), read8AfterOpcode()));
-        }
-            break;
-        case XOR_A_HLR: {
-            setRegFlags(Reg.A, Alu.xor(reg8.get(Reg.A), read8AtHl()));
-        }
-            break;
-        case CPL: {
-            int cpl = Bits.complement8(reg8.get(Reg.A));
-            reg8.set(Reg.A, cpl);
-            combineAluFlags(cpl, FlagSrc.CPU, FlagSrc.V1, FlagSrc.V1,
-                    FlagSrc.CPU);
-        }
-            break;
+            int r = extractReg(opcode, 0).index();
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.xor(cpu.regs[A], cpu.regs[r]));
+                return next;
+            };
+        }
+        case XOR_A_N8:
+            return (cpu, next) -> {
+                cpu.setRegFlags(A,
+                        AluTables.xor(cpu.regs[A], cpu.read8AfterOpcode()));
+                return next;
+            };
+        case XOR_A_HLR:
+            return (cpu, next) -> {
+                cpu.setRegFlags(A, AluTables.xor(cpu.regs[A], cpu.read8AtHl()));
+                return next;
+            };
+        case CPL:
+            return (cpu, next) -> {
+                int cpl = Bits.complement8(cpu.regs[A]);
+                cpu.regs[A] = cpl;
+                cpu.combineAluFlags(cpl, CPL_FLAGS);
+                return next;
+            };
 
         // Rotate, shift
         case ROTCA: {
-            int rot = Alu.rotate(extractDir(opcode), reg8.get(Reg.A));
-            setRegFromAlu(Reg.A, rot);
-            combineAluFlags(rot, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0,
-                    FlagSrc.ALU);
+            RotDir d = extractDir(opcode);
+            return (cpu, next) -> {
+                int rot = AluTables.rotate(d, cpu.regs[A]);
+                cpu.regs[A] = Alu.unpackValue(rot);
+                cpu.combineAluFlags(rot, ROTA_FLAGS);
+                return next;
+            };
         }
-            break;
         case ROTA: {
-            int rot = Alu.rotate(extractDir(opcode), reg8.get(Reg.A),
-                    reg8.testBit(Reg.F, Flag.C));
-            setRegFromAlu(Reg.A, rot);
-            combineAluFlags(rot, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0,
-                    FlagSrc.ALU);
+            RotDir d = extractDir(opcode);
+            return (cpu, next) -> {
+                int rot = AluTables.rotate(d, cpu.regs[A],
+                        cpu.testFlag(Flag.C));
+                cpu.regs[A] = Alu.unpackValue(rot);
+                cpu.combineAluFlags(rot, ROTA_FLAGS);
+                return next;
+            };
         }
-            break;
         case ROTC_R8: {
-            Reg r = extractReg(opcode, 0);
-            int rot = Alu.rotate(extractDir(opcode), reg8.get(r));
-            setRegFlags(r, rot);
+            int r = extractReg(opcode, 0).index();
+            RotDir d = extractDir(opcode);
+            return (cpu, next) -> {
+                cpu.setRegFlags(r, AluTables.rotate(d, cpu.regs[r]));
+                return next;
+            };
         }
-            break;
         case ROT_R8: {
-            Reg r = extractReg(opcode, 0);
-            int rot = Alu.rotate(extractDir(opcode), reg8.get(r),
-                    reg8.testBit(Reg.F, Flag.C));
-            setRegFlags(r, rot);
+            int r = extractReg(opcode, 0).index();
+            RotDir d = extractDir(opcode);
+            return (cpu, next) -> {
+                cpu.setRegFlags(r, AluTables.rotate(d, cpu.regs[r],
+                        cpu.testFlag(Flag.C)));
+                return next;
+            };
         }
-            break;
         case ROTC_HLR: {
-            int rot = Alu.rotate(extractDir(opcode), read8AtHl());
-            write8AtHlAndSetFlags(rot);
+            RotDir d = extractDir(opcode);
+            return (cpu, next) -> {
+                cpu.write8AtHlAndSetFlags(AluTables.rotate(d, cpu.read8AtHl()));
+                return next;
+            };
         }
-            break;
         case ROT_HLR: {
-            int rot = Alu.rotate(extractDir(opcode), read8AtHl(),
-                    reg8.testBit(Reg.F, Flag.C));
-            write8AtHlAndSetFlags(rot);
+            RotDir d = extractDir(opcode);
+            return (cpu, next) -> {
+                cpu.write8AtHlAndSetFlags(AluTables.rotate(d, cpu.read8AtHl(),
+                        cpu.testFlag(Flag.C)));
+                return next;
+            };
         }
-            break;
         case SWAP_R8: {
-            Reg r = extractReg(opcode, 0);
-            int swap = Alu.swap(reg8.get(r));
-            setRegFlags(r, swap);
-        }
-            break;
-        case SWAP_HLR: {
-            int swap = Alu.swap(read8AtHl());
-            write8AtHlAndSetFlags(swap);
-        }
-            break;
+            int r = extractReg(opcode, 0).index();
+            return (cpu, next) -> {
+                cpu.setRegFlags(r, AluTables.swap(cpu.regs[r]));
+                return next;
+            };
+        }
+        case SWAP_HLR:
+            return (cpu, next) -> {
+                cpu.write8AtHlAndSetFlags(AluTables.swap(cpu.read8AtHl()));
+                return next;
+            };
         case SLA_R8: {
-            Reg r = extractReg(opcode, 0);
-            int shiftL = Alu.shiftLeft(reg8.get(r));
-            setRegFlags(r, shiftL);
+            int r = extractReg(opcode, 0).index();
+            return (cpu, next) -> {
+                cpu.setRegFlags(r, AluTables.shiftLeft(cpu.regs[r]));
+                return next;
+            };
         }
-            break;
         case SRA_R8: {
-            Reg r = extractReg(opcode, 0);
-            int shiftR = Alu.shiftRightA(reg8.get(r));
-            setRegFlags(r, shiftR);
+            int r = extractReg(opcode, 0).index();
+            return (cpu, next) -> {
+                cpu.setRegFlags(r, AluTables.shiftRightA(cpu.regs[r]));
+                return next;
+            };
         }
-            break;
         case SRL_R8: {
-            Reg r = extractReg(opcode, 0);
-            int shiftR = Alu.shiftRightL(reg8.get(r));
-            setRegFlags(r, shiftR);
-        }
-            break;
-        case SLA_HLR: {
-            int shiftL = Alu.shiftLeft(read8AtHl());
-            write8AtHlAndSetFlags(shiftL);
-        }
-            break;
-        case SRA_HLR: {
-            int shiftR = Alu.shiftRightA(read8AtHl());
-            write8AtHlAndSetFlags(shiftR);
-        }
-            break;
-        case SRL_HLR: {
-            int shiftR = Alu.shiftRightL(read8AtHl());
-            write8AtHlAndSetFlags(shiftR);
-        }
-            break;
+            int r = extractReg(opcode, 0).index();
+            return (cpu, next) -> {
+                cpu.setRegFlags(r, AluTables.shiftRightL(cpu.regs[r]));
+                return next;
+            };
+        }
+        case SLA_HLR:
+            return (cpu, next) -> {
+                cpu.write8AtHlAndSetFlags(AluTables.shiftLeft(cpu.read8AtHl()));
+                return next;
+            };
+        case SRA_HLR:
+            return (cpu, next) -> {
+                cpu.write8AtHlAndSetFlags(
+                        AluTables.shiftRightA(cpu.read8AtHl()));
+                return next;
+            };
+        case SRL_HLR:
+            return (cpu, next) -> {
+                cpu.write8AtHlAndSetFlags(
+                        AluTables.shiftRightL(cpu.read8AtHl()));
+                return next;
+            };
 
         // Bit test and set
         case BIT_U3_R8: {
-            int test = Alu.testBit(reg8.get(extractReg(opcode, 0)),
-                    extract4thBit(opcode));
-            combineAluFlags(test, FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1,
-                    FlagSrc.CPU);
+            int r = extractReg(opcode, 0).index();
+            int bit = Bits.extract(opcode.encoding, 3, 3);
+            return (cpu, next) -> {
+                cpu.combineAluFlags(AluTables.testBit(cpu.regs[r], bit),
+                        BIT_FLAGS);
+                return next;
+            };
         }
-            break;
         case BIT_U3_HLR: {
-            int test = Alu.testBit(read8AtHl(), extract4thBit(opcode));
-            combineAluFlags(test, FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1,
-                    FlagSrc.CPU);
+            int bit = Bits.extract(opcode.encoding, 3, 3);
+            return (cpu, next) -> {
+                cpu.combineAluFlags(AluTables.testBit(cpu.read8AtHl(), bit),
+                        BIT_FLAGS);
+                return next;
+            };
         }
-            break;
         case CHG_U3_R8: {
-            Reg r = extractReg(opcode, 0);
+            int r = extractReg(opcode, 0).index();
+            int mask = 1 << Bits.extract(opcode.encoding, 3, 3);
             if (!Bits.test(opcode.encoding, 6)) {
-                reg8.set(r,
-                        reg8.get(r) & Bits.complement8(1 << extract4thBit(opcode)));
+                int resetMask = Bits.complement8(mask);
+                return (cpu, next) -> {
+                    cpu.regs[r] &= resetMask;
+                    return next;
+                };
             } else {
-                reg8.set(r, reg8.get(r) | (1 << extract4thBit(opcode)));
+                return (cpu, next) -> {
+                    cpu.regs[r] |= mask;
+                    return next;
+                };
             }
         }
-            break;
         case CHG_U3_HLR: {
+            int mask = 1 << Bits.extract(opcode.encoding, 3, 3);
             if (!Bits.test(opcode.encoding, 6)) {
-                write8AtHl(
-                        read8AtHl() & Bits.complement8(1 << extract4thBit(opcode)));
+                int resetMask = Bits.complement8(mask);
+                return (cpu, next) -> {
+                    cpu.write8AtHl(cpu.read8AtHl() & resetMask);
+                    return next;
+                };
             } else {
-                write8AtHl(read8AtHl() | (1 << extract4thBit(opcode)));
+                return (cpu, next) -> {
+                    cpu.write8AtHl(cpu.read8AtHl() | mask);
+                    return next;
+                };
             }
         }
-            break;
 
         // Misc. ALU
-        case DAA: {
-            
-            int adjust = Alu.bcdAdjust(reg8.get(Reg.A),
-                    reg8.testBit(Reg.F, Flag.N), reg8.testBit(Reg.F, Flag.H),
-                    reg8.testBit(Reg.F, Flag.C));
-            setRegFromAlu(Reg.A, adjust);
-            combineAluFlags(adjust, FlagSrc.ALU, FlagSrc.CPU, FlagSrc.V0,
-                    FlagSrc.ALU);
-        }
-            break;
-        case SCCF: {
-            
+        case DAA:
+            return (cpu, next) -> {
+                int adjust = AluTables.bcdAdjust(cpu.regs[A],
+                        cpu.testFlag(Flag.N), cpu.testFlag(Flag.H),
+                        cpu.testFlag(Flag.C));
+                cpu.regs[A] = Alu.unpackValue(adjust);
+                cpu.combineAluFlags(adjust, DAA_FLAGS);
+                return next;
+            };
+        case SCCF:
             if (Bits.test(opcode.encoding, 3)) {
-
-                combineAluFlags(
-                        Alu.maskZNHC(false, false, false, carry2(opcode)),
-                        FlagSrc.CPU, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
-            }
-
-            else {
-                combineAluFlags(
-                        Alu.maskZNHC(false, false, false, carry2(opcode)),
-                        FlagSrc.CPU, FlagSrc.V0, FlagSrc.V0, FlagSrc.V1);
+                return (cpu, next) -> {
+                    cpu.combineAluFlags(Alu.maskZNHC(false, false, false,
+                            !cpu.testFlag(Flag.C)), CCF_FLAGS);
+                    return next;
+                };
+            } else {
+                return (cpu, next) -> {
+                    cpu.combineAluFlags(0, SCF_FLAGS);
+                    return next;
+                };
             }
 
-        }
-
-            break;
-
         // Jumps
-        case JP_HL: {
-            nextPC = reg16(Reg16.HL);
-        }
-            break;
-        case JP_N16: {
-            nextPC = read16AfterOpcode();
-        }
-            break;
+        case JP_HL:
+            return (cpu, next) -> cpu.reg16(Reg16.HL);
+        case JP_N16:
+            return (cpu, next) -> cpu.read16AfterOpcode();
         case JP_CC_N16: {
-            if (extractCC(opcode)) {
-                nextPC = read16AfterOpcode();
-                instructionDone = true;
-            }
-        }
-            break;
-        case JR_E8: {
-            nextPC += Bits.signExtend8(read8AfterOpcode());
-        }
-            break;
+            int ccMask = extractConditionFlag(opcode);
+            boolean ccSet = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                if (cpu.testCondition(ccMask, ccSet)) {
+                    next = cpu.read16AfterOpcode();
+                    cpu.nextNonIdleCycle += additionalCycles;
+                }
+                return next;
+            };
+        }
+        case JR_E8:
+            return (cpu, next) -> next
+                    + Bits.signExtend8(cpu.read8AfterOpcode());
         case JR_CC_E8: {
-            if (extractCC(opcode)) {
-                nextPC += Bits.signExtend8(read8AfterOpcode());
-                instructionDone = true;
-            }
+            int ccMask = extractConditionFlag(opcode);
+            boolean ccSet = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                if (cpu.testCondition(ccMask, ccSet)) {
+                    next += Bits.signExtend8(cpu.read8AfterOpcode());
+                    cpu.nextNonIdleCycle += additionalCycles;
+                }
+                return next;
+            };
         }
-            break;
 
         // Calls and returns
-        case CALL_N16: {
-            push16(nextPC);
-            nextPC = read16AfterOpcode();
-        }
-            break;
+        case CALL_N16:
+            return (cpu, next) -> {
+                cpu.push16(next);
+                return cpu.read16AfterOpcode();
+            };
         case CALL_CC_N16: {
-            if (extractCC(opcode)) {
-                push16(nextPC);
-                nextPC = read16AfterOpcode();
-                instructionDone = true;
-            }
+            int ccMask = extractConditionFlag(opcode);
+            boolean ccSet = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                if (cpu.testCondition(ccMask, ccSet)) {
+                    cpu.push16(next);
+                    next = cpu.read16AfterOpcode();
+                    cpu.nextNonIdleCycle += additionalCycles;
+                }
+                return next;
+            };
         }
-            break;
         case RST_U3: {
-            push16(nextPC);
-            nextPC = 8 * Bits.extract(opcode.encoding, 3, 3);
-        }
-            break;
-        case RET: {
-            nextPC = pop16();
-        }
-            break;
+            int target = 8 * Bits.extract(opcode.encoding, 3, 3);
+            return (cpu, next) -> {
+                cpu.push16(next);
+                return target;
+            };
+        }
+        case RET:
+            return (cpu, next) -> cpu.pop16();
         case RET_CC: {
-            
-            if (extractCC(opcode)) {
-                nextPC = pop16();
-                instructionDone = true;
-            }
+            int ccMask = extractConditionFlag(opcode);
+            boolean ccSet = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                if (cpu.testCondition(ccMask, ccSet)) {
+                    next = cpu.pop16();
+                    cpu.nextNonIdleCycle += additionalCycles;
+                }
+                return next;
+            };
         }
-            break;
 
         // Interrupts
         case EDI: {
-            
-            if ((Bits.test(opcode.encoding, 3))) {
-                IME = true;
-
-            } else {
-                IME = false;
-
-            }
-        }
-            break;
-        case RETI: {
-            IME = true;
-            nextPC = pop16();
-        }
-            break;
+            boolean enable = Bits.test(opcode.encoding, 3);
+            return (cpu, next) -> {
+                cpu.IME = enable;
+                return next;
+            };
+        }
+        case RETI:
+            return (cpu, next) -> {
+                cpu.IME = true;
+                return cpu.pop16();
+            };
 
         // Misc control
-        case HALT: {
-            nextNonIdleCycle = Long.MAX_VALUE;
-        }
-            break;
+        case HALT:
+            return (cpu, next) -> {
+                cpu.nextNonIdleCycle = Long.MAX_VALUE;
+                return next;
+            };
         case STOP:
-            throw new Error("STOP is not implemented");
+            return (cpu, next) -> {
+                throw new Error("STOP is not implemented");
+            };
+        default:
+            throw new Error("unknown family " + opcode.family);
         }
-
-        PC = nextPC;
-        nextNonIdleCycle += opcode.cycles
-                + (instructionDone ? opcode.additionalCycles : 0);
     }
 
     /**
@@ -788,6 +1056,8 @@ public final class Cpu implements Component, Clocked {
 
     public void attachTo(Bus bus) {
         this.bus = bus;
+        if (keepBlocks)
+            blocks = new BlockCache(bus, romBanks, OPCODE_TABLE);
         bus.attach(this);
     }
 
@@ -801,10 +1071,24 @@ public final class Cpu implements Component, Clocked {
      *             si l'adresse n'est pas une valeur 16 bits
      */
     private int read8(int address) {
+        if (!isStableAddress(address))
+            loopClean = false;
         return bus.read(address);
 
     }
 
+    /**
+     * retourne vrai ssi l'adresse donnée est en mémoire vive de travail (écho
+     * compris) ou en mémoire haute, dont l'écriture ne peut pas changer le
+     * moment où un autre composant évolue
+     */
+    private static boolean isRamAddress(int address) {
+        return (address >= AddressMap.WORK_RAM_START
+                && address < AddressMap.ECHO_RAM_END)
+                || (address >= AddressMap.HIGH_RAM_START
+                        && address < AddressMap.HIGH_RAM_END);
+    }
+
     /**
      * lit depuis le bus la valeur 8 bits à l'adresse contenue dans la paire de
      * registres HL
@@ -879,6 +1163,9 @@ public final class Cpu implements Component, Clocked {
      *             si l'adresse n'est pas une valeur 16 bits
      */
     private void write8(int address, int v) {
+        loopClean = false;
+        if (!isRamAddress(address))
+            wroteComponent = true;
         bus.write(address, v);
     }
 
@@ -895,6 +1182,9 @@ public final class Cpu implements Component, Clocked {
      */
     private void write16(int address, int v) {
         assert address < 0xFFFF;
+        loopClean = false;
+        if (!isRamAddress(address) || !isRamAddress(address + 1))
+            wroteComponent = true;
         bus.write(Bits.clip(16, address + 1), Bits.extract(v, 8, 8));
         bus.write(address, Bits.clip(8, v));
     }
@@ -943,6 +1233,28 @@ public final class Cpu implements Component, Clocked {
         return a;
     }
 
+    /**
+     * retourne la valeur du registre 8 bits donné
+     * 
+     * @param r
+     *            le registre
+     * @return la valeur du registre
+     */
+    private int get8(Reg r) {
+        return regs[r.index()];
+    }
+
+    /**
+     * retourne vrai ssi le fanion donné vaut 1 dans le registre F
+     * 
+     * @param f
+     *            le fanion
+     * @return vrai ssi le fanion est à 1
+     */
+    private boolean testFlag(Flag f) {
+        return (regs[F] & f.mask()) != 0;
+    }
+
     /**
      * donne la valeur contenue dans la paire de registre donnée
      * 
@@ -953,10 +1265,7 @@ public final class Cpu implements Component, Clocked {
      */
     private int reg16(Reg16 r) {
 
-        int a = reg8.get(r.r1);
-        int b = reg8.get(r.r2);
-
-        return Bits.make16(a, b);
+        return regs[r.r1.index()] << 8 | regs[r.r2.index()];
     }
 
     /**
@@ -970,21 +1279,8 @@ public final class Cpu implements Component, Clocked {
      *            valeur qu'on va mettre dans le registre
      */
     private void setReg16(Reg16 r, int newV) {
-        if (r == Reg16.AF) {
-            int c = newV & 0b11110000;
-            reg8.set(r.r2, c);
-            int b = Bits.extract(newV, 8, 8);
-            reg8.set(r.r1, b);
-        }
-
-        else {
-
-            int a = Bits.clip(8, newV);
-            int b = Bits.extract(newV, 8, 8);
-            reg8.set(r.r1, b);
-            reg8.set(r.r2, a);
-
-        }
+        regs[r.r1.index()] = (newV >>> 8) & 0xFF;
+        regs[r.r2.index()] = newV & (r == Reg16.AF ? 0xF0 : 0xFF);
 
     }
 
@@ -1001,8 +1297,8 @@ public final class Cpu implements Component, Clocked {
         if (r == Reg16.AF) {
             SP = newV;
         } else {
-            reg8.set(r.r2, Bits.clip(8, newV));
-            reg8.set(r.r1, Bits.extract(newV, 8, 8));
+            regs[r.r2.index()] = newV & 0xFF;
+            regs[r.r1.index()] = (newV >>> 8) & 0xFF;
 
         }
     }
@@ -1015,7 +1311,7 @@ public final class Cpu implements Component, Clocked {
      *            donne l'instruction à éxécuter
      * @return RotDir.RIGHT si le 4ieme bit vaut 1 sinon RotDir.LEFT
      */
-    private RotDir extractDir(Opcode opcode) {
+    private static RotDir extractDir(Opcode opcode) {
 
         if (Bits.test(opcode.encoding, 3)) {
             return RotDir.RIGHT;
@@ -1035,7 +1331,7 @@ public final class Cpu implements Component, Clocked {
      * @return le registre contenu dans les 3 bits de l'opcode donné qui indique
      *         le registre
      */
-    private Reg extractReg(Opcode opcode, int startBit) {
+    private static Reg extractReg(Opcode opcode, int startBit) {
 
         Reg a = null;
 
@@ -1077,7 +1373,7 @@ public final class Cpu implements Component, Clocked {
      * @return le registre donné dans la paire de bits qui indique les registres
      *         dans l'opcode donné
      */
-    private Reg16 extractReg16(Opcode opcode) {
+    private static Reg16 extractReg16(Opcode opcode) {
         Reg16 a = null;
 
         switch (Bits.extract(opcode.encoding, 4, 2)) {
@@ -1105,7 +1401,7 @@ public final class Cpu implements Component, Clocked {
      *            donne l'instruction ou le bit est à tester,
      * @return 1 ou -1 en fonction du 4ieme bit, s'il vaut 1 retourne -1 sinon 1
      */
-    private int extractHlIncrement(Opcode opcode) {
+    private static int extractHlIncrement(Opcode opcode) {
         int a;
         if (Bits.test(opcode.encoding, 4)) {
             a = -1;
@@ -1116,11 +1412,6 @@ public final class Cpu implements Component, Clocked {
         return a;
     }
 
-    public int extract4thBit(Opcode opcode) {
-        return Bits.extract(opcode.encoding, 3, 3);
-
-    }
-
     /*
      * (non-Javadoc)
      * 
@@ -1128,6 +1419,9 @@ public final class Cpu implements Component, Clocked {
      */
     @Override
     public void write(int address, int data) {
+        if (blocks != null)
+            blocks.written(address);
+
         if (Preconditions.checkBits16(address) == AddressMap.REG_IE) {
 
             IE = Preconditions.checkBits16(data);
@@ -1172,6 +1466,19 @@ public final class Cpu implements Component, Clocked {
 
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Component#isWriteTarget(int)
+     */
+    @Override
+    public boolean isWriteTarget(int address) {
+        // les blocs gardés doivent apprendre toutes les écritures qui
+        // peuvent les rendre invalides, quel que soit le composant écrit
+        return (blocks != null && BlockCache.isWatched(address))
+                || Component.super.isWriteTarget(address);
+    }
+
     /**
      * extrait une valeur depuis la valeur donnée et la stocke dans le registre
      * donnée
@@ -1182,8 +1489,8 @@ public final class Cpu implements Component, Clocked {
      *            donne la valeur dont on extrait une autre valeur en enlevant
      *            les fanions
      */
-    private void setRegFromAlu(Reg r, int vf) {
-        reg8.set(r, Alu.unpackValue(vf));
+    private void setRegFromAlu(int r, int vf) {
+        regs[r] = Alu.unpackValue(vf);
     }
 
     /**
@@ -1193,7 +1500,7 @@ public final class Cpu implements Component, Clocked {
      *            valeur dont on extrait les fanions
      */
     private void setFlags(int valueFlags) {
-        reg8.set(Reg.F, Alu.unpackFlags(valueFlags));
+        regs[F] = Alu.unpackFlags(valueFlags);
     }
 
     /**
@@ -1206,7 +1513,7 @@ public final class Cpu implements Component, Clocked {
      *            donne la valeur depuis laquelle on extrait les fanions et les
      *            bits de poids forts
      */
-    private void setRegFlags(Reg r, int vf) {
+    private void setRegFlags(int r, int vf) {
         setRegFromAlu(r, vf);
         setFlags(vf);
     }
@@ -1225,12 +1532,10 @@ public final class Cpu implements Component, Clocked {
     }
 
     /**
-     * combine les fanions stockés dans le registre F de la valeur donnée avec
-     * ceux contenus dans la paire vf et stocke le resultat dans le registre F
+     * calcule, pour la combinaison de sources donnée, les masques des fanions
+     * mis à 1, de ceux pris dans la paire valeur/fanions de l'Alu et de ceux
+     * gardés du registre F, regroupés dans un entier (octets 0, 1 et 2)
      * 
-     * @param vf
-     *            valeur utilisée pour combiner ses fanions aux autres valeurs
-     *            données
      * @param z
      *            valeur utilisée pour determiner le fanion Z
      * @param n
@@ -1239,144 +1544,59 @@ public final class Cpu implements Component, Clocked {
      *            valeur utilisée pour determiner le fanion H
      * @param c
      *            valeur utilisée pour determiner le fanion C
+     * @return les trois masques regroupés
      */
-    private void combineAluFlags(int vf, FlagSrc z, FlagSrc n, FlagSrc h,
-            FlagSrc c) {
-        
-        switch (c) {
-        case V0: {
-            reg8.setBit(Reg.F, Flag.values()[4], false);
-        }
-            break;
-        case V1: {
-            reg8.setBit(Reg.F, Flag.values()[4], true);
-        }
-            break;
-        case ALU: {
-            reg8.setBit(Reg.F, Flag.values()[4],
-                    Bits.test(Alu.unpackFlags(vf), 4));
-        }
-            break;
-        case CPU: {
-            reg8.setBit(Reg.F, Flag.values()[4], Bits.test(reg8.get(Reg.F), 4));
-        }
-            break;
-        }     
-        
-        switch (h) {
-        case V0: {
-            reg8.setBit(Reg.F, Flag.values()[5], false);
-        }
-            break;
-        case V1: {
-            reg8.setBit(Reg.F, Flag.values()[5], true);
-        }
-            break;
-        case ALU: {
-            reg8.setBit(Reg.F, Flag.values()[5],
-                    Bits.test(Alu.unpackFlags(vf), 5));
-        }
-            break;
-        case CPU: {
-            reg8.setBit(Reg.F, Flag.values()[5], Bits.test(reg8.get(Reg.F), 5));
-        }
-            break;
-        }
-    
-        switch (n) {
-        case V0: {
-            reg8.setBit(Reg.F, Flag.values()[6], false);
-        }
-            break;
-        case V1: {
-            reg8.setBit(Reg.F, Flag.values()[6], true);
-        }
-            break;
-        case ALU: {
-            reg8.setBit(Reg.F, Flag.values()[6],
-                    Bits.test(Alu.unpackFlags(vf), 6));
-        }
-            break;
-        case CPU: {
-            reg8.setBit(Reg.F, Flag.values()[6], Bits.test(reg8.get(Reg.F), 6));
-        }
-            break;
-        }    
-        
-        switch (z) {
-        case V0: {
-            reg8.setBit(Reg.F, Flag.values()[7], false);
-        }
-            break;
-        case V1: {
-            reg8.setBit(Reg.F, Flag.values()[7], true);
-        }
-            break;
-        case ALU: {
-            reg8.setBit(Reg.F, Flag.values()[7],
-                    Bits.test(Alu.unpackFlags(vf), 7));
-        }
-            break;
-        case CPU: {
-            reg8.setBit(Reg.F, Flag.values()[7], Bits.test(reg8.get(Reg.F), 7));
-        }
-            break;
-        }
-        
-        reg8.set(Reg.F, reg8.get(Reg.F));
+    private static int flagMasks(FlagSrc z, FlagSrc n, FlagSrc h, FlagSrc c) {
+        FlagSrc[] sources = { c, h, n, z };
+        int masks = 0;
+        for (int i = 0; i < sources.length; ++i) {
+            int mask = Flag.C.mask() << i;
+            masks |= sources[i] == FlagSrc.V1 ? mask
+                    : sources[i] == FlagSrc.ALU ? mask << 8
+                            : sources[i] == FlagSrc.CPU ? mask << 16 : 0;
+        }
+        return masks;
     }
 
-    private boolean extractCC(Opcode opcode) {
-        
-        int a = Bits.extract(opcode.encoding, 3, 2);
-        boolean Return = true;
-        switch (a) {
-        case 0: {
-            Return = !reg8.testBit(Reg.F, Flag.Z);
-        }
-            break;
-        case 1: {
-            Return = reg8.testBit(Reg.F, Flag.Z);
-        }
-            break;
-        case 2: {
-            Return = !reg8.testBit(Reg.F, Flag.C);
-        }
-            break;
-        case 3: {
-            Return = reg8.testBit(Reg.F, Flag.C);
-        }
-            break;
-
-        }
-
-        return Return;
+    /**
+     * combine les fanions stockés dans le registre F avec ceux contenus dans
+     * la paire vf, selon les masques donnés, et stocke le resultat dans le
+     * registre F
+     * 
+     * @param vf
+     *            valeur utilisée pour combiner ses fanions aux autres valeurs
+     *            données
+     * @param masks
+     *            les masques calculés par flagMasks
+     */
+    private void combineAluFlags(int vf, int masks) {
+        regs[F] = (masks & 0xFF) | (vf & (masks >>> 8) & 0xFF)
+                | (regs[F] & (masks >>> 16));
     }
 
     /**
-     * donne le carry de l'instruction à éxécuter
+     * donne le fanion testé par la condition de l'instruction donnée
      * 
      * @param opcode
-     *            donne une des valeurs qui influe sur le carry
-     * @return 1 si le fanion C est égal à 1 et si le 4ieme bit de l'opcode est
-     *         égal à1 sinon 0
+     *            donne l'instruction conditionnelle
+     * @return le masque du fanion C si le bit 4 de l'opcode vaut 1, sinon
+     *         celui du fanion Z
      */
-    private boolean carry1(Opcode opcode) {
-        boolean c = Bits.test(reg8.get(Reg.F), 4);
-        boolean b = Bits.test(opcode.encoding, 3);
-        return (c & b);
+    private static int extractConditionFlag(Opcode opcode) {
+        return Bits.test(opcode.encoding, 4) ? Flag.C.mask() : Flag.Z.mask();
     }
 
     /**
-     * donne l'inverse de la focntion carry1
+     * teste une condition d'instruction
      * 
-     * @param opcode
-     *            donne une des valeurs qui influe sur le carry
-     * @return 0 si le fanion C est égal à 1 et si le 4ieme bit de l'opcode est
-     *         égal à1 sinon 1
+     * @param flagMask
+     *            donne le masque du fanion testé
+     * @param set
+     *            donne la valeur attendue du fanion
+     * @return vrai ssi le fanion a la valeur attendue
      */
-    private boolean carry2(Opcode opcode) {
-        return !carry1(opcode);
+    private boolean testCondition(int flagMask, boolean set) {
+        return ((regs[F] & flagMask) != 0) == set;
     }
 
     private boolean testIeIf() {
@@ -1384,25 +1604,95 @@ public final class Cpu implements Component, Clocked {
         return (IF & IE) != 0;
     }
 
-    private boolean getIME() {
-        
-        return IME;
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Stateful#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        // PC, SP, IME, IE, IF, registres 8 bits, prochain cycle, mémoire haute
+        return 2 * Short.BYTES + 3 + ALL_REGS.length + Long.BYTES
+                + highRam.stateSize();
     }
 
-    private void setF(int a) {
-        
-        Preconditions.checkBits8(a);
-        reg8.set(Reg.F, a);
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.putShort((short) PC).putShort((short) SP)
+                .put((byte) (IME ? 1 : 0)).put((byte) IE).put((byte) IF);
+        for (int r : regs)
+            buffer.put((byte) r);
+        buffer.putLong(nextNonIdleCycle);
+        highRam.saveState(buffer);
     }
 
-    private void setIE(int a) {
-        
-        IE = a;
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Stateful#checkState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void checkState(ByteBuffer buffer) {
+        if (buffer.remaining() < stateSize())
+            throw new BufferUnderflowException();
+        buffer.position(buffer.position() + 2 * Short.BYTES);
+        byte ime = buffer.get();
+        buffer.position(buffer.position() + 2 + F);
+        // les 4 bits de poids faible de F sont toujours nuls
+        int f = buffer.get();
+        Preconditions.checkArgument((ime == 0 || ime == 1) && (f & 0xF) == 0);
+        buffer.position(buffer.position() + ALL_REGS.length - F - 1
+                + Long.BYTES);
+        highRam.checkState(buffer);
     }
 
-    private void setIF(int a) {
-        
-        IF = a;
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        PC = Short.toUnsignedInt(buffer.getShort());
+        SP = Short.toUnsignedInt(buffer.getShort());
+        IME = buffer.get() != 0;
+        IE = Byte.toUnsignedInt(buffer.get());
+        IF = Byte.toUnsignedInt(buffer.get());
+        for (int i = 0; i < regs.length; ++i)
+            regs[i] = Byte.toUnsignedInt(buffer.get());
+        nextNonIdleCycle = buffer.getLong();
+        highRam.loadState(buffer);
+        if (blocks != null)
+            blocks.clear();
+        resetIdleLoop();
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.gameboj.component.Stateful#copyStateFrom(ch.epfl.gameboj.component.Stateful)
+     */
+    @Override
+    public void copyStateFrom(Stateful other) {
+        Preconditions.checkArgument(other instanceof Cpu);
+        Cpu cpu = (Cpu) other;
+
+        PC = cpu.PC;
+        SP = cpu.SP;
+        IME = cpu.IME;
+        IE = cpu.IE;
+        IF = cpu.IF;
+        System.arraycopy(cpu.regs, 0, regs, 0, regs.length);
+        nextNonIdleCycle = cpu.nextNonIdleCycle;
+        highRam.copyStateFrom(cpu.highRam);
+        if (blocks != null)
+            blocks.clear();
+        resetIdleLoop();
     }
 
     public void requestInterrupt(Interrupt i) {
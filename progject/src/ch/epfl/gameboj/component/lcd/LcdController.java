@@ -1,28 +1,30 @@
 package ch.epfl.gameboj.component.lcd;
 
-import java.util.List;
-import java.util.ArrayList;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Objects;
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.Register;
 import ch.epfl.gameboj.RegisterFile;
-import ch.epfl.gameboj.bits.BitVector;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Stateful;
 import ch.epfl.gameboj.component.cpu.Cpu;
 import ch.epfl.gameboj.component.cpu.Cpu.Interrupt;
 import ch.epfl.gameboj.component.memory.Ram;
 
-public final class LcdController implements Clocked, Component {
+public final class LcdController implements Clocked, Component, Stateful {
 
     private final Cpu cpu;
     private Bus bus;
     private LcdImage currentImage;
     private final Ram videoRam;
     private final Ram spriteRam;
+    private final TileCache tiles;
 
     // *Addresses*
     private final int ADDRESS_LCDC = 0xFF40;
@@ -37,11 +39,17 @@ public final class LcdController implements Clocked, Component {
     private final int ADDRESS_OBP1 = 0xFF49;
     private final int ADDRESS_WY = 0xFF4A;
     private final int ADDRESS_WX = 0xFF4B;
-    private final int TILE_ADDRESS_OVERFLOW = 128;
 
-    // *Copy*
+    // *Copy* : un octet par cycle, l'octet dmaNext au cycle dmaNextCycle,
+    // mais copiés par lots, lorsque l'OAM est utilisée, avant toute écriture
+    // sur le bus et à la fin de la copie ; les registres (page FF) changeant
+    // sans écriture, ils sont copiés à chaque cycle
+    private final int DMA_LENGTH = 160;
+    private final int DMA_REGS_PAGE = 0xFF;
     private boolean dmaChanged = false;
-    private int cyclesSinceCopy = 0;
+    private int dmaNext = 0;
+    private long dmaNextCycle = 0;
+    private final Runnable dmaCatchUp = () -> dmaUntil(bus.currentCycle());
 
     // *Cycles*
     private final int LINE_CYCLES = 114;
@@ -49,8 +57,6 @@ public final class LcdController implements Clocked, Component {
     private long lcdOnCycle;
     private int cyclesSinceLine = 0;
     private final int IMAGE_CYCLES = 17556;
-    private LcdImage.Builder nextImageBuilder = new LcdImage.Builder(LCD_WIDTH,
-            LCD_HEIGHT);
 
     // *Sprites*
     private final int SPRITES_X_OFFSET = 8;
@@ -61,24 +67,84 @@ public final class LcdController implements Clocked, Component {
 
     // *Image*
     private final int BACKGROUND_WIDTH = 256;
-    private final int TILES_IN_LINE = 32;
     private final int WX_X_OFFSET = 7;
     private int winY = 0;
     public static final int LCD_HEIGHT = 144;
     public static final int LCD_WIDTH = 160;
 
-
-    final static private BitVector NULL_VECTOR = new BitVector(LCD_WIDTH,
-            false);
-
-    final static private LcdImageLine NULL_LINE = new LcdImageLine(NULL_VECTOR,
-            NULL_VECTOR, NULL_VECTOR);
+    // *Rendu* : tampons réutilisés d'une ligne et d'une image à l'autre, un
+    // point des plans de sprites valant OPAQUE | couleur s'il est opaque
+    private static final int COLOR_MASK = 0b11;
+    private static final int OPAQUE = 0b100;
+    private static final byte[] BLANK = new byte[LCD_WIDTH * LCD_HEIGHT];
+    private byte[] backBuffer = BLANK;
+    private byte[] frontBuffer = BLANK;
+
+    // *Image ARGB* : remplie en même temps que le tampon des couleurs
+    private final int[] argbPalette = { 0xFF_FF_FF_FF, 0xFF_D3_D3_D3,
+            0xFF_A9_A9_A9, 0xFF_00_00_00 };
+    private static final int[] BLANK_ARGB = new int[LCD_WIDTH * LCD_HEIGHT];
+    private int[] backArgb = BLANK_ARGB;
+    private int[] frontArgb = BLANK_ARGB;
+    // faux tant que les tampons de l'image sont partagés, avec une copie
+    // (copyStateFrom) ou avec les autres contrôleurs (image blanche du
+    // départ), et doivent être copiés avant d'y écrire
+    private boolean backOwned = false;
+    private boolean frontOwned = false;
+    private final byte[] spritesBelow = new byte[LCD_WIDTH];
+    private final byte[] spritesFront = new byte[LCD_WIDTH];
+
+    // *Index des sprites* : pour chaque ligne, les sprites qui l'intersectent
+    // dans l'ordre de spritesIntersectingLine ; reconstruit à la première
+    // ligne qui suit une écriture dans l'OAM ou un changement de hauteur
+    private final int LINES = IMAGE_CYCLES / LINE_CYCLES;
+    private final int[] spriteIndex = new int[LINES * MAX_SPRITES_IN_LINE];
+    private final int[] spriteCounts = new int[LINES];
+    private int spriteIndexHeight = 0;
+    private final byte[] packedPixels = new byte[packedSize()];
+
+    // *Politique de rendu* : décidée au début de chaque image
+    private RenderPolicy renderPolicy = RenderPolicy.EVERY_FRAME;
+    private int renderInterval = 1;
+    private long framesStarted = 0;
+    private boolean frameRequested = false;
+    private boolean rendering = true;
+
+    /**
+     * Images dont les lignes sont calculées ; celles qui ne le sont pas
+     * avancent exactement au même rythme (LY, STAT, interruptions), mais les
+     * tampons de l'image gardent la dernière image calculée
+     */
+    public enum RenderPolicy {
+        /**
+         * toutes les images sont calculées
+         */
+        EVERY_FRAME,
+        /**
+         * une image sur n est calculée
+         */
+        EVERY_NTH_FRAME,
+        /**
+         * seule l'image qui commence après un appel à requestFrame est
+         * calculée
+         */
+        ON_DEMAND,
+        /**
+         * aucune image n'est calculée
+         */
+        NEVER
+    }
 
     public enum Regs implements Register {
         LCDC, STAT, SCY, SCX, LY, LYC, DMA, BGP, OBP0, OBP1, WY, WX
     }
 
-    private RegisterFile<Register> regs = new RegisterFile<>(Regs.values());
+    private static final Regs[] ALL_REGS = Regs.values();
+
+    static {
+        Arrays.fill(BLANK_ARGB, 0xFF_FF_FF_FF);
+    }
+    private RegisterFile<Register> regs = new RegisterFile<>(ALL_REGS);
 
     public LcdController(Cpu cpu) {
 
@@ -87,23 +153,118 @@ public final class LcdController implements Clocked, Component {
         this.cpu = cpu;
         this.videoRam = new Ram(AddressMap.VIDEO_RAM_SIZE);
         this.spriteRam = new Ram(AddressMap.OAM_RAM_SIZE);
+        this.tiles = new TileCache(videoRam);
 
     }
 
+    /**
+     * Retourne la dernière image affichée, construite à partir du tampon de
+     * l'image lors du premier appel qui suit son affichage
+     * 
+     * @return la dernière image
+     */
     public LcdImage currentImage() {
 
-        if (currentImage == null) {
+        if (currentImage == null)
+            currentImage = LcdImage.ofColors(LCD_WIDTH, LCD_HEIGHT,
+                    frontBuffer);
 
-            List<LcdImageLine> list = new ArrayList<>(LCD_HEIGHT);
+        return currentImage;
+    }
 
-            for (int i = 0; i < LCD_HEIGHT; i++)
-                list.add(NULL_LINE);
+    /**
+     * Retourne le tampon de la dernière image affichée, qui contient la
+     * couleur (de 0 à 3) de chaque point, ligne par ligne ; le tableau est
+     * réutilisé et ne doit pas être modifié
+     * 
+     * @return le tampon de la dernière image
+     */
+    public byte[] frameBuffer() {
 
-            return new LcdImage(LCD_WIDTH, LCD_HEIGHT, list);
+        return frontBuffer;
+    }
 
-        } else
+    /**
+     * Retourne le tampon de la dernière image affichée, qui contient la
+     * couleur ARGB de chaque point, ligne par ligne, et peut être copié tel
+     * quel dans une image JavaFX ; le tableau est réutilisé et ne doit pas
+     * être modifié
+     * 
+     * @return le tampon ARGB de la dernière image
+     */
+    public int[] argbFrameBuffer() {
+
+        return frontArgb;
+    }
+
+    /**
+     * Change la politique de rendu, à partir de la prochaine image
+     * 
+     * @param policy
+     *            la politique, qui ne peut pas être EVERY_NTH_FRAME (voir
+     *            renderEveryNthFrame)
+     * @throws NullPointerException
+     *             si la politique est nulle
+     * @throws IllegalArgumentException
+     *             si la politique est EVERY_NTH_FRAME
+     */
+    public void setRenderPolicy(RenderPolicy policy) {
+
+        Preconditions.checkArgument(
+                Objects.requireNonNull(policy) != RenderPolicy.EVERY_NTH_FRAME);
+        renderPolicy = policy;
+        renderInterval = 1;
+    }
 
-            return currentImage;
+    /**
+     * Ne calcule plus qu'une image sur n, à partir de la prochaine image, qui
+     * est calculée
+     * 
+     * @param n
+     *            l'intervalle entre deux images calculées
+     * @throws IllegalArgumentException
+     *             si n n'est pas strictement positif
+     */
+    public void renderEveryNthFrame(int n) {
+
+        Preconditions.checkArgument(n > 0);
+        renderPolicy = RenderPolicy.EVERY_NTH_FRAME;
+        renderInterval = n;
+        framesStarted = 0;
+    }
+
+    /**
+     * Retourne la politique de rendu
+     * 
+     * @return la politique de rendu
+     */
+    public RenderPolicy renderPolicy() {
+
+        return renderPolicy;
+    }
+
+    /**
+     * Demande que la prochaine image soit calculée, quelle que soit la
+     * politique de rendu
+     */
+    public void requestFrame() {
+
+        frameRequested = true;
+    }
+
+    /**
+     * Change les couleurs ARGB associées aux couleurs 0 à 3 des points, à
+     * partir de la prochaine ligne calculée
+     * 
+     * @param palette
+     *            les quatre couleurs ARGB
+     * @throws IllegalArgumentException
+     *             si la palette ne contient pas quatre couleurs
+     */
+    public void setArgbPalette(int[] palette) {
+
+        Preconditions.checkArgument(palette.length == argbPalette.length);
+        System.arraycopy(palette, 0, argbPalette, 0, argbPalette.length);
     }
 
     @Override
@@ -125,8 +286,11 @@ public final class LcdController implements Clocked, Component {
             return regRead(address);
         }
 
-        else if (address >= AddressMap.OAM_START & address < AddressMap.OAM_END)
+        else if (address >= AddressMap.OAM_START
+                & address < AddressMap.OAM_END) {
+            dmaUntil(bus.currentCycle());
             return spriteRam.read(address - AddressMap.OAM_START);
+        }
 
         return NO_DATA;
     }
@@ -138,8 +302,10 @@ public final class LcdController implements Clocked, Component {
         Preconditions.checkBits8(data);
 
         if (address >= AddressMap.VIDEO_RAM_START
-                && address < AddressMap.VIDEO_RAM_END)
+                && address < AddressMap.VIDEO_RAM_END) {
             videoRam.write(address - AddressMap.VIDEO_RAM_START, data);
+            tiles.written(address - AddressMap.VIDEO_RAM_START);
+        }
 
         else if (address >= AddressMap.REGS_LCDC_START
                 && address < AddressMap.REGS_LCDC_END)
@@ -166,8 +332,11 @@ public final class LcdController implements Clocked, Component {
                 break;
             }
 
-        else if (address >= AddressMap.OAM_START & address < AddressMap.OAM_END)
+        else if (address >= AddressMap.OAM_START
+                & address < AddressMap.OAM_END) {
             spriteRam.write(address - AddressMap.OAM_START, data);
+            spriteIndexHeight = 0;
+        }
     }
 
     private void changeMode(int a) {
@@ -214,22 +383,60 @@ public final class LcdController implements Clocked, Component {
             nextNonIdleCycle = 0;
 
         }
-        if (dmaChanged && cyclesSinceCopy < 160) {
-            bus.write(cyclesSinceCopy + AddressMap.OAM_START,
-                    bus.read(((regs.get(Regs.DMA)) << 8) + cyclesSinceCopy));
+        dmaUntil(cycle);
 
-            cyclesSinceCopy++;
+        if (cycle - lcdOnCycle == nextNonIdleCycle) {
+            reallyCycle(cycle);
+        }
 
-            if (cyclesSinceCopy == 160) {
-                dmaChanged = false;
-                cyclesSinceCopy = 0;
-            }
+    }
+
+    @Override
+    public long nextCycle(long cycle) {
+
+        long next;
+        if (nextNonIdleCycle == Long.MAX_VALUE) {
+            next = Bits.test(regs.get(Regs.LCDC), 7) ? cycle : Long.MAX_VALUE;
+        } else {
+            next = lcdOnCycle + nextNonIdleCycle;
+            if (next < cycle)
+                next = Long.MAX_VALUE;
         }
 
-        if (cycle - lcdOnCycle == nextNonIdleCycle) {
-            reallyCycle(cycle);
+        // la copie se termine à temps même si l'OAM n'est pas lue
+        if (dmaChanged)
+            next = Math.min(next, regs.get(Regs.DMA) == DMA_REGS_PAGE ? cycle
+                    : Math.max(cycle, dmaNextCycle + DMA_LENGTH - 1 - dmaNext));
+        return next;
+    }
+
+    /**
+     * Copie dans l'OAM les octets que la copie DMA en cours aurait copiés
+     * jusqu'au cycle donné (compris), en lisant leur source sur le bus
+     */
+    private void dmaUntil(long cycle) {
+
+        if (!dmaChanged || cycle < dmaNextCycle)
+            return;
+
+        int end = (int) Math.min(DMA_LENGTH,
+                dmaNext + cycle - dmaNextCycle + 1);
+        int source = regs.get(Regs.DMA) << 8;
+
+        while (dmaNext < end) {
+            // l'octet est compté avant d'être lu, la source pouvant être
+            // l'OAM elle-même
+            int i = dmaNext++;
+            ++dmaNextCycle;
+            spriteRam.write(i, bus.read(source + i));
         }
+        spriteIndexHeight = 0;
 
+        if (dmaNext == DMA_LENGTH) {
+            dmaChanged = false;
+            dmaNext = 0;
+            bus.beforeWrite(null);
+        }
     }
 
     public void reallyCycle(long cycle) {
@@ -242,14 +449,19 @@ public final class LcdController implements Clocked, Component {
 
         if (atLine<144) {
             if (frameCycle == 0) {
-                winY = 0;
-                nextImageBuilder = new LcdImage.Builder(LCD_WIDTH,
-                        LCD_HEIGHT);
+                rendering = startFrame();
+                if (rendering) {
+                    winY = 0;
+                    ownBack();
+                    Arrays.fill(backBuffer, (byte) 0);
+                    Arrays.fill(backArgb, argbPalette[0]);
+                }
             }
             switch (cyclesSinceLine) {
 
             case 20:
-                nextImageBuilder.setLine(atLine, computeLine(atLine));
+                if (rendering)
+                    computeLine(atLine);
                 nextNonIdleCycle += 43;
                 changeMode(3);
                 break;
@@ -268,7 +480,18 @@ public final class LcdController implements Clocked, Component {
 
         } else {
             if (atLine == 144) {
-                currentImage = nextImageBuilder.build();
+                if (rendering) {
+                    byte[] image = frontBuffer;
+                    frontBuffer = backBuffer;
+                    backBuffer = image;
+                    int[] argb = frontArgb;
+                    frontArgb = backArgb;
+                    backArgb = argb;
+                    boolean owned = frontOwned;
+                    frontOwned = backOwned;
+                    backOwned = owned;
+                    currentImage = null;
+                }
                 changeMode(1);
             }
             nextNonIdleCycle += LINE_CYCLES;
@@ -278,224 +501,370 @@ public final class LcdController implements Clocked, Component {
         }
     
 
-    private LcdImageLine computeLine(int lineIndex) {
-
-        int line = Bits.clip(8, lineIndex + regs.get(Regs.SCY));
-        int tileLine = (int) line >>> 3;
-        int lineInTile = (int) line % (TILE_SIZE);
-        LcdImageLine spriteBelow = NULL_LINE;
-        LcdImageLine spriteFront = NULL_LINE;
-        LcdImageLine screenLine = NULL_LINE;
-        LcdImageLine winLine = NULL_LINE;
-        LcdImageLine lineReturned = NULL_LINE;
-
-        
-        if (Bits.test(regs.get(Regs.LCDC), 1)) {
-            spriteBelow = spriteLine(spritesIntersectingLine(), line, false);
-            spriteFront = (spriteLine(spritesIntersectingLine(), line, true));
+    /**
+     * Compte l'image qui commence et retourne vrai ssi elle doit être
+     * calculée
+     */
+    private boolean startFrame() {
+
+        boolean requested = frameRequested;
+        frameRequested = false;
+        long frame = framesStarted++;
+
+        switch (renderPolicy) {
+        case EVERY_FRAME:
+            return true;
+        case EVERY_NTH_FRAME:
+            return requested || frame % renderInterval == 0;
+        case ON_DEMAND:
+        case NEVER:
+        default:
+            return requested;
         }
+    }
 
-        lineReturned = lineReturned.below(spriteBelow);
-
-        if (Bits.test(regs.get(Regs.LCDC), 0)) {
-            LcdImageLine.Builder lineBuild = new LcdImageLine.Builder(
-                    BACKGROUND_WIDTH);
-            for (int a = 0; a < TILES_IN_LINE; ++a) {
-
-                int lsb, msb, tileAddress = 0;
-                int TILE_SOURCE = Bits.test(regs.get(Regs.LCDC), 4) ? 1 : 0;
-                int BG_DISPLAY_DATA = Bits.test(regs.get(Regs.LCDC), 3) ? 1 : 0;
-
-                tileAddress = this
-                        .read(AddressMap.BG_DISPLAY_DATA[BG_DISPLAY_DATA]
-                                + (tileLine << 5) + a);
-
-                if (!Bits.test(regs.get(Regs.LCDC), 4))
-                    tileAddress = (tileAddress < TILE_ADDRESS_OVERFLOW)
-                            ? tileAddress + TILE_ADDRESS_OVERFLOW
-                            : tileAddress - TILE_ADDRESS_OVERFLOW;
-
-                lsb = this.read(AddressMap.TILE_SOURCE[TILE_SOURCE]
-                        + (tileAddress << 4) + (lineInTile << 1));
-
-                msb = this.read(AddressMap.TILE_SOURCE[TILE_SOURCE]
-                        + (tileAddress << 4) + (lineInTile << 1) + 1);
-
-                lineBuild.setBytes(a, Bits.reverse8(msb), Bits.reverse8(lsb));
+    /**
+     * Calcule la ligne d'index donné directement dans le tampon de l'image en
+     * construction, sans allocation : sprites d'arrière-plan, arrière-plan,
+     * fenêtre puis sprites de premier plan
+     */
+    private void computeLine(int lineIndex) {
+
+        int lcdc = regs.get(Regs.LCDC);
+        int offset = lineIndex * LCD_WIDTH;
+        ownBack();
+
+        Arrays.fill(spritesBelow, (byte) 0);
+        Arrays.fill(spritesFront, (byte) 0);
+        if (Bits.test(lcdc, 1))
+            computeSprites();
+
+        byte[] maps = tiles.maps();
+
+        if (Bits.test(lcdc, 0)) {
+            int line = mapLine(3,
+                    Bits.clip(8, lineIndex + regs.get(Regs.SCY)));
+            int scx = regs.get(Regs.SCX);
+            int bgp = regs.get(Regs.BGP);
+
+            for (int x = 0; x < LCD_WIDTH; ++x) {
+                int color = maps[line
+                        + ((scx + x) & (BACKGROUND_WIDTH - 1))];
+                backBuffer[offset + x] = (color != 0
+                        || spritesBelow[x] == 0)
+                                ? (byte) mapColor(bgp, color)
+                                : (byte) (spritesBelow[x] & COLOR_MASK);
             }
-
-            screenLine = lineBuild.build();
-            screenLine = screenLine.extract(regs.get(Regs.SCX), LCD_WIDTH);
-            screenLine = screenLine.mapColors(regs.get(Regs.BGP));
-            BitVector or = spriteBelow.opacity().not();
-            lineReturned = lineReturned.below(screenLine,
-                    (screenLine.opacity().or(or)));
+        } else {
+            for (int x = 0; x < LCD_WIDTH; ++x)
+                backBuffer[offset + x] = (byte) (spritesBelow[x] & COLOR_MASK);
         }
 
-        int wxTranslated = regs.get(Regs.WX) - WX_X_OFFSET;
-        wxTranslated = wxTranslated < 0 ? 0 : wxTranslated;
+        int wx = regs.get(Regs.WX) - WX_X_OFFSET;
+        int wxTranslated = wx < 0 ? 0 : wx;
 
-        if (lineIndex >= regs.get(Regs.WY) && Bits.test(regs.get(Regs.LCDC), 5)
-                && wxTranslated < 160) {
+        if (lineIndex >= regs.get(Regs.WY) && Bits.test(lcdc, 5)
+                && wxTranslated < LCD_WIDTH) {
 
-            winLine = computeWin();
-            lineReturned = lineReturned.join(winLine, wxTranslated);
+            int line = mapLine(6, winY++);
+            int bgp = regs.get(Regs.BGP);
+
+            for (int x = wxTranslated; x < LCD_WIDTH; ++x)
+                backBuffer[offset + x] = (byte) mapColor(bgp,
+                        maps[line + x - wx]);
         }
 
-        lineReturned = lineReturned.below(spriteFront);
-        return lineReturned;
+        for (int x = 0; x < LCD_WIDTH; ++x) {
+            if (spritesFront[x] != 0)
+                backBuffer[offset + x] = (byte) (spritesFront[x] & COLOR_MASK);
+            backArgb[offset + x] = argbPalette[backBuffer[offset + x]];
+        }
     }
 
-    private LcdImageLine computeWin() {
-
-        /* fenetre */
-
-        int wxTranslated = regs.get(Regs.WX) - WX_X_OFFSET;
-        int tileLineWin = (int) winY >>> 3;
-        int lineInTileWin = (int) winY % (TILE_SIZE);
-        LcdImageLine.Builder winLineBuilder = new LcdImageLine.Builder(256);
-        LcdImageLine winLine;
-
-        for (int a = 0; a < TILES_IN_LINE; ++a) {
-
-            int lsb, msb, tileAddress = 0;
-            int TILE_SOURCE = Bits.test(regs.get(Regs.LCDC), 4) ? 1 : 0;
-            int BG_DISPLAY_DATA = Bits.test(regs.get(Regs.LCDC), 6) ? 1 : 0;
+    /**
+     * Retourne la position, dans le tableau des lignes des tables du cache
+     * des tuiles, des couleurs (non transformées par la palette) de la ligne
+     * donnée de l'arrière-plan ou de la fenêtre, le bit donné de LCDC
+     * choisissant la table des tuiles
+     */
+    private int mapLine(int mapBit, int line) {
+
+        int lcdc = regs.get(Regs.LCDC);
+        return tiles.mapLine(Bits.test(lcdc, mapBit) ? 1 : 0,
+                Bits.test(lcdc, 4), line);
+    }
 
-            tileAddress = this.read(AddressMap.BG_DISPLAY_DATA[BG_DISPLAY_DATA]
-                    + (tileLineWin << 5) + a);
+    /**
+     * Dessine les sprites de la ligne courante dans spritesBelow et
+     * spritesFront, le premier sprite de la liste triée étant au-dessus des
+     * suivants
+     */
+    private void computeSprites() {
+
+        dmaUntil(bus.currentCycle());
+        int ly = regs.get(Regs.LY);
+        int first = spritesIntersectingLine(ly);
+        int height = getHeight();
+        byte[] tilePixels = tiles.tiles();
+
+        for (int i = first + spriteCounts[ly] - 1; i >= first; --i) {
+
+            int sprite = spriteIndex[i] << 2;
+            int spriteXPosition = spriteRam.read(sprite + 1) - SPRITES_X_OFFSET;
+            int tileAddress = spriteRam.read(sprite + 2);
+            int attributes = spriteRam.read(sprite + 3);
+            int lineInTile = (ly - spriteRam.read(sprite)) & (height - 1);
+
+            if (Bits.test(attributes, 6))
+                lineInTile = height - 1 - lineInTile;
+
+            int pixels = tiles.tileLine(tileAddress, lineInTile);
+
+            int palette = regs
+                    .get(Bits.test(attributes, 4) ? Regs.OBP1 : Regs.OBP0);
+            boolean hFlip = Bits.test(attributes, 5);
+            byte[] plane = Bits.test(attributes, 7) ? spritesBelow
+                    : spritesFront;
+
+            for (int j = 0; j < TILE_SIZE; ++j) {
+                int x = spriteXPosition + j;
+                int color = tilePixels[pixels
+                        + (hFlip ? TILE_SIZE - 1 - j : j)];
+                if (x >= 0 && x < LCD_WIDTH && color != 0)
+                    plane[x] = (byte) (OPAQUE | mapColor(palette, color));
+            }
+        }
+    }
 
-            if (!Bits.test(regs.get(Regs.LCDC), 4))
-                tileAddress = (tileAddress < TILE_ADDRESS_OVERFLOW)
-                        ? tileAddress + TILE_ADDRESS_OVERFLOW
-                        : tileAddress - TILE_ADDRESS_OVERFLOW;
+    /**
+     * Retourne les index des sprites (au plus 10) qui intersectent la ligne
+     * courante, triés par abscisse puis par index
+     * 
+     * @return les index des sprites de la ligne
+     */
+    public int[] spritesIntersectingLine() {
 
-            lsb = this.read(AddressMap.TILE_SOURCE[TILE_SOURCE]
-                    + (tileAddress << 4) + (lineInTileWin << 1));
+        int ly = regs.get(Regs.LY);
+        if (ly >= LINES)
+            return new int[0];
 
-            msb = this.read(AddressMap.TILE_SOURCE[TILE_SOURCE]
-                    + (tileAddress << 4) + (lineInTileWin << 1) + 1);
+        int first = spritesIntersectingLine(ly);
+        return Arrays.copyOfRange(spriteIndex, first,
+                first + spriteCounts[ly]);
+    }
 
-            winLineBuilder.setBytes(a, Bits.reverse8(msb), Bits.reverse8(lsb));
-        }
+    /**
+     * Retourne la position, dans spriteIndex, des sprites de la ligne donnée,
+     * au nombre de spriteCounts[ly], après avoir reconstruit l'index si
+     * nécessaire
+     */
+    private int spritesIntersectingLine(int ly) {
 
-        ++winY;
-        winLine = winLineBuilder.build();
-        winLine = winLine.shift(wxTranslated);
-        winLine = winLine.extract(0, LCD_WIDTH);
-        winLine = winLine.mapColors(regs.get(Regs.BGP));
-        return winLine;
+        if (spriteIndexHeight != getHeight())
+            buildSpriteIndex();
+        return ly * MAX_SPRITES_IN_LINE;
     }
 
-    public int[] spritesIntersectingLine() {
+    /**
+     * Range chaque sprite dans les lignes qu'il intersecte, dans l'ordre des
+     * index et au plus 10 par ligne, puis trie chaque ligne par abscisse puis
+     * par index
+     */
+    private void buildSpriteIndex() {
 
-        int index = 0, spritesFound = 0;
-        int[] indexes = new int[MAX_SPRITES_IN_LINE];
+        int height = getHeight();
+        Arrays.fill(spriteCounts, 0);
 
-        while (spritesFound < MAX_SPRITES_IN_LINE
-                & index < MAX_SPRITES_IN_MEMORY) {
+        for (int index = 0; index < MAX_SPRITES_IN_MEMORY; ++index) {
 
-            if (bus.read(AddressMap.OAM_START + (index << 2))
-                    - SPRITES_Y_OFFSET <= regs.get(Regs.LY)
-                    && bus.read(AddressMap.OAM_START + (index << 2))
-                            + getHeight()
-                            - SPRITES_Y_OFFSET > regs.get(Regs.LY)) {
+            int y = spriteRam.read(index << 2) - SPRITES_Y_OFFSET;
+            int sprite = Bits.make16(spriteRam.read((index << 2) + 1), index);
 
-                indexes[spritesFound] = Bits.make16(
-                        bus.read(AddressMap.OAM_START + (index << 2) + 1),
-                        index);
-                spritesFound++;
+            for (int ly = Math.max(y, 0); ly < Math.min(y + height,
+                    LINES); ++ly) {
+                if (spriteCounts[ly] < MAX_SPRITES_IN_LINE)
+                    spriteIndex[ly * MAX_SPRITES_IN_LINE
+                            + spriteCounts[ly]++] = sprite;
             }
-            index++;
         }
 
-        Arrays.sort(indexes, 0, spritesFound);
-        int[] finall = new int[spritesFound];
-
-        for (int i = 0; i < spritesFound; i++)
-            finall[i] = Bits.clip(8, indexes[i]);
-
-        return finall;
+        for (int ly = 0; ly < LINES; ++ly) {
+            int first = ly * MAX_SPRITES_IN_LINE;
+            int end = first + spriteCounts[ly];
+            Arrays.sort(spriteIndex, first, end);
+            for (int i = first; i < end; ++i)
+                spriteIndex[i] = Bits.clip(8, spriteIndex[i]);
+        }
+        spriteIndexHeight = height;
     }
 
-    public LcdImageLine spriteLine(int[] spriteIndex, int lineIndex,
-            boolean isInFront) {
+    private static int mapColor(int palette, int color) {
 
-        List<LcdImageLine> spriteLines = new ArrayList<>();
-        LcdImageLine line = NULL_LINE;
-
-        for (int i = 0; i < spriteIndex.length; i++) {
+        return (palette >>> (color << 1)) & COLOR_MASK;
+    }
 
-            int lsb, msb = 0;
-            LcdImageLine.Builder spriteBuilder = new LcdImageLine.Builder(
-                    LCD_WIDTH);
-            LcdImageLine spriteLine;
-            int spriteIndexx = spriteIndex[i];
-            int spriteXPosition = bus
-                    .read(AddressMap.OAM_START + (spriteIndexx << 2) + 1)
-                    - SPRITES_X_OFFSET;
-            boolean spritePalette = Bits.test(
-                    bus.read(AddressMap.OAM_START + (spriteIndexx << 2) + 3),
-                    4);
-            boolean hFlip = Bits.test(
-                    bus.read(AddressMap.OAM_START + (spriteIndexx << 2) + 3),
-                    5);
-            boolean vFlip = Bits.test(
-                    bus.read(AddressMap.OAM_START + (spriteIndexx << 2) + 3),
-                    6);
-            int lineInTile = (regs.get(Regs.LY)
-                    - (bus.read(AddressMap.OAM_START + (spriteIndexx << 2))))
-                    & (getHeight() - 1);
-            int tileAddress = bus
-                    .read(AddressMap.OAM_START + (spriteIndexx << 2) + 2);
+    @Override
+    public int stateSize() {
+        // registres, mémoires, copie DMA, cycles, ligne de la fenêtre, puis
+        // les deux images à raison de 2 bits par point
+        return ALL_REGS.length + videoRam.stateSize()
+                + spriteRam.stateSize() + 1 + Integer.BYTES + 3 * Long.BYTES
+                + 2 * Integer.BYTES + 2 * packedSize();
+    }
 
-            if (vFlip)
-                lineInTile = getHeight() - 1 - lineInTile;
+    @Override
+    public void saveState(ByteBuffer buffer) {
+
+        for (Regs r : ALL_REGS)
+            buffer.put((byte) regs.get(r));
+        videoRam.saveState(buffer);
+        spriteRam.saveState(buffer);
+        buffer.put((byte) (dmaChanged ? 1 : 0)).putInt(dmaNext)
+                .putLong(dmaNextCycle)
+                .putLong(nextNonIdleCycle).putLong(lcdOnCycle)
+                .putInt(cyclesSinceLine).putInt(winY);
+        savePixels(buffer, backBuffer);
+        savePixels(buffer, frontBuffer);
+    }
 
-            lsb = this.read(AddressMap.TILE_SOURCE[1] + (tileAddress << 4)
-                    + (lineInTile << 1));
+    @Override
+    public void checkState(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < stateSize())
+            throw new BufferUnderflowException();
+        buffer.position(start + ALL_REGS.length);
+        videoRam.checkState(buffer);
+        spriteRam.checkState(buffer);
+        byte changed = buffer.get();
+        int next = buffer.getInt();
+        buffer.position(buffer.position() + 3 * Long.BYTES);
+        int sinceLine = buffer.getInt();
+        int y = buffer.getInt();
+        // dmaNext et winY servent d'index lors de la copie et du calcul des
+        // lignes
+        Preconditions.checkArgument((changed == 0 || changed == 1)
+                && next >= 0 && next < DMA_LENGTH
+                && sinceLine >= 0 && sinceLine < LINE_CYCLES
+                && y >= 0 && y <= 0xFF);
+        buffer.position(start + stateSize());
+    }
 
-            msb = this.read(AddressMap.TILE_SOURCE[1] + (tileAddress << 4)
-                    + (lineInTile << 1) + 1);
+    @Override
+    public void loadState(ByteBuffer buffer) {
+
+        for (Regs r : ALL_REGS)
+            regs.set(r, Byte.toUnsignedInt(buffer.get()));
+        videoRam.loadState(buffer);
+        tiles.clear();
+        spriteRam.loadState(buffer);
+        spriteIndexHeight = 0;
+        dmaChanged = buffer.get() != 0;
+        dmaNext = buffer.getInt();
+        dmaNextCycle = buffer.getLong();
+        bus.beforeWrite(dmaChanged ? dmaCatchUp : null);
+        nextNonIdleCycle = buffer.getLong();
+        lcdOnCycle = buffer.getLong();
+        cyclesSinceLine = buffer.getInt();
+        winY = buffer.getInt();
+        ownBack();
+        loadPixels(buffer, backBuffer, backArgb);
+        if (!frontOwned) {
+            frontBuffer = new byte[frontBuffer.length];
+            frontArgb = new int[frontArgb.length];
+            frontOwned = true;
+        }
+        loadPixels(buffer, frontBuffer, frontArgb);
+        currentImage = null;
+    }
 
-            if (hFlip) {
+    /**
+     * Copie l'état du contrôleur donné en partageant ses mémoires et ses
+     * tampons d'image, y compris ce qui n'est pas sauvegardé (palette ARGB,
+     * politique de rendu) ; les caches sont reconstruits au besoin
+     */
+    @Override
+    public void copyStateFrom(Stateful other) {
+
+        Preconditions.checkArgument(other instanceof LcdController);
+        LcdController lcd = (LcdController) other;
+
+        for (Regs r : ALL_REGS)
+            regs.set(r, lcd.regs.get(r));
+        videoRam.copyStateFrom(lcd.videoRam);
+        tiles.clear();
+        spriteRam.copyStateFrom(lcd.spriteRam);
+        spriteIndexHeight = 0;
+        dmaChanged = lcd.dmaChanged;
+        dmaNext = lcd.dmaNext;
+        dmaNextCycle = lcd.dmaNextCycle;
+        bus.beforeWrite(dmaChanged ? dmaCatchUp : null);
+        nextNonIdleCycle = lcd.nextNonIdleCycle;
+        lcdOnCycle = lcd.lcdOnCycle;
+        cyclesSinceLine = lcd.cyclesSinceLine;
+        winY = lcd.winY;
+
+        backBuffer = lcd.backBuffer;
+        backArgb = lcd.backArgb;
+        frontBuffer = lcd.frontBuffer;
+        frontArgb = lcd.frontArgb;
+        backOwned = frontOwned = lcd.backOwned = lcd.frontOwned = false;
+        currentImage = null;
+
+        System.arraycopy(lcd.argbPalette, 0, argbPalette, 0,
+                argbPalette.length);
+        renderPolicy = lcd.renderPolicy;
+        renderInterval = lcd.renderInterval;
+        framesStarted = lcd.framesStarted;
+        frameRequested = lcd.frameRequested;
+        rendering = lcd.rendering;
+    }
 
-                msb = Bits.reverse8(msb);
-                lsb = Bits.reverse8(lsb);
-            }
+    /**
+     * Copie les tampons de l'image en construction s'ils sont partagés,
+     * avant d'y écrire
+     */
+    private void ownBack() {
 
-            spriteLine = spriteBuilder
-                    .setBytes(0, Bits.reverse8(msb), Bits.reverse8(lsb))
-                    .build();
-            
-            if (spritePalette)
-                spriteLine = spriteLine.mapColors(regs.get(Regs.OBP1));
-
-            else
-                spriteLine = spriteLine.mapColors(regs.get(Regs.OBP0));
-
-            if ((isInFront && !Bits.test(
-                    bus.read(AddressMap.OAM_START + (spriteIndexx << 2) + 3),
-                    7))
-                    || (!isInFront & Bits.test(bus.read(
-                            AddressMap.OAM_START + (spriteIndexx << 2) + 3),
-                            7))) {
-
-                spriteLine = spriteLine.shift(spriteXPosition);
-                spriteLines.add(spriteLine);
-            }
+        if (!backOwned) {
+            backBuffer = backBuffer.clone();
+            backArgb = backArgb.clone();
+            backOwned = true;
         }
+    }
 
-        LcdImageLine[] planDeSprite = new LcdImageLine[spriteLines.size()];
-
-        spriteLines.toArray(planDeSprite);
+    private static int packedSize() {
 
-        for (int i = planDeSprite.length - 1; i >= 0; --i)
+        return LCD_WIDTH * LCD_HEIGHT / 4;
+    }
 
-            line = line.below(planDeSprite[i]);
+    /**
+     * Écrit les couleurs de l'image donnée, quatre points par octet
+     */
+    private void savePixels(ByteBuffer buffer, byte[] pixels) {
 
-        return line;
+        for (int i = 0; i < packedPixels.length; ++i) {
+            int p = i << 2;
+            packedPixels[i] = (byte) (pixels[p] | pixels[p + 1] << 2
+                    | pixels[p + 2] << 4 | pixels[p + 3] << 6);
+        }
+        buffer.put(packedPixels);
+    }
 
+    /**
+     * Lit les couleurs d'une image écrite par savePixels, et en déduit les
+     * couleurs ARGB avec la palette courante
+     */
+    private void loadPixels(ByteBuffer buffer, byte[] pixels, int[] argb) {
+
+        buffer.get(packedPixels);
+        for (int i = 0; i < packedPixels.length; ++i) {
+            int packed = packedPixels[i];
+            for (int j = 0; j < 4; ++j) {
+                int color = (packed >>> (j << 1)) & COLOR_MASK;
+                pixels[(i << 2) + j] = (byte) color;
+                argb[(i << 2) + j] = argbPalette[color];
+            }
+        }
     }
 
     private int getHeight() {
@@ -627,6 +996,12 @@ public final class LcdController implements Clocked, Component {
             break;
 
         case ADDRESS_DMA:
+            // une copie en cours continue depuis le même octet
+            if (!dmaChanged) {
+                dmaNext = 0;
+                dmaNextCycle = bus.currentCycle() + 1;
+                bus.beforeWrite(dmaCatchUp);
+            }
             dmaChanged = true;
             regs.set(Regs.DMA, data);
             break;
@@ -41,9 +41,44 @@ public final class LcdImage {
 
     }
 
+    /**
+     * Construit une image à partir des couleurs de ses points, données ligne
+     * par ligne ; l'opacité de chaque point est celle de sa couleur (non
+     * nulle)
+     *
+     * @param width
+     *            la largeur de l'image, multiple de 32
+     * @param height
+     *            la hauteur de l'image
+     * @param colors
+     *            les couleurs (de 0 à 3) des points
+     * @return l'image
+     * @throws IllegalArgumentException
+     *             si le tableau n'a pas la taille de l'image
+     */
+    public static LcdImage ofColors(int width, int height, byte[] colors) {
+        Preconditions.checkArgument(colors.length == width * height);
+
+        List<LcdImageLine> list = new ArrayList<>(height);
+        for (int y = 0; y < height; ++y) {
+            LcdImageLine.Builder line = new LcdImageLine.Builder(width);
+            for (int b = 0; b < width / Byte.SIZE; ++b) {
+                int msb = 0, lsb = 0;
+                for (int i = 0; i < Byte.SIZE; ++i) {
+                    int color = colors[y * width + b * Byte.SIZE + i];
+                    msb |= (color >>> 1 & 1) << i;
+                    lsb |= (color & 1) << i;
+                }
+                line.setBytes(b, msb, lsb);
+            }
+            list.add(line.build());
+        }
+        return new LcdImage(width, height, list);
+    }
+
     /**
      * retourne la largeur
-     * 
+     *
      * @return la largeur
      */
     public int getWidth() {
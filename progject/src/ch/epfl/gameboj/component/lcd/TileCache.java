@@ -0,0 +1,215 @@
+package ch.epfl.gameboj.component.lcd;
+
+import java.util.Arrays;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.component.memory.Ram;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Garde les tuiles de la mémoire vidéo décodées (la couleur de 0 à 3
+ *         de chaque point, de gauche à droite), ainsi que les lignes de
+ *         256 points des deux tables de tuiles construites avec elles.
+ *
+ *         Le contrôleur signale chaque écriture en mémoire vidéo : une tuile
+ *         écrite est décodée à nouveau lors de sa prochaine utilisation, une
+ *         rangée de tuiles de table écrite est reconstruite, et une rangée
+ *         dont une tuile a changé depuis sa construction aussi. Tant que la
+ *         mémoire vidéo ne change pas, une ligne d'arrière-plan ne coûte donc
+ *         qu'une comparaison.
+ */
+final class TileCache {
+
+    private static final int TILE_SIZE = 8;
+    private static final int TILE_BYTES = 16;
+    private static final int TILE_COUNT = 384;
+    private static final int TILE_PIXELS = TILE_SIZE * TILE_SIZE;
+    private static final int MAP_TILES = 32;
+    private static final int MAP_WIDTH = MAP_TILES * TILE_SIZE;
+    private static final int MAP_ROW_PIXELS = MAP_WIDTH * TILE_SIZE;
+    private static final int MAP_PIXELS = MAP_WIDTH * MAP_WIDTH;
+    private static final int TILE_DATA_SIZE = TILE_COUNT * TILE_BYTES;
+    private static final int SIGNED_OFFSET = 128;
+
+    private final Ram videoRam;
+
+    // tuiles décodées, 64 points par tuile ligne par ligne ; comme les
+    // lignes des tables, allouées lors de la première utilisation, afin
+    // qu'un contrôleur qui ne calcule aucune image ne les alloue jamais
+    private byte[] tiles = null;
+    private final boolean[] tileDirty = new boolean[TILE_COUNT];
+    // numéro de la dernière écriture de chaque tuile
+    private final long[] tileWrites = new long[TILE_COUNT];
+    private long writes = 0;
+
+    // points des deux tables, rangée de tuiles par rangée de tuiles
+    private byte[] maps = null;
+    private final boolean[] rowValid = new boolean[2 * MAP_TILES];
+    private final boolean[] rowUnsigned = new boolean[2 * MAP_TILES];
+    // valeur de writes lors de la construction de chaque rangée
+    private final long[] rowBuilt = new long[2 * MAP_TILES];
+
+    /**
+     * construit un cache de la mémoire vidéo donnée, qui doit être écrite
+     * uniquement par le contrôleur
+     *
+     * @param videoRam
+     *            la mémoire vidéo
+     */
+    TileCache(Ram videoRam) {
+        this.videoRam = videoRam;
+        clear();
+    }
+
+    /**
+     * retourne le tableau des tuiles décodées, dans lequel tileLine donne la
+     * position des lignes
+     *
+     * @return le tableau des tuiles décodées
+     */
+    byte[] tiles() {
+        allocate();
+        return tiles;
+    }
+
+    /**
+     * retourne le tableau des lignes des tables, dans lequel mapLine donne
+     * la position des lignes
+     *
+     * @return le tableau des lignes des tables
+     */
+    byte[] maps() {
+        allocate();
+        return maps;
+    }
+
+    /**
+     * signale l'écriture de l'octet d'index donné de la mémoire vidéo
+     *
+     * @param index
+     *            l'index de l'octet dans la mémoire vidéo
+     */
+    void written(int index) {
+        if (index < TILE_DATA_SIZE) {
+            int tile = index / TILE_BYTES;
+            tileDirty[tile] = true;
+            tileWrites[tile] = ++writes;
+        } else {
+            rowValid[(index - TILE_DATA_SIZE) / MAP_TILES] = false;
+        }
+    }
+
+    /**
+     * oublie tout le contenu du cache, par exemple lorsque toute la mémoire
+     * vidéo a changé
+     */
+    void clear() {
+        Arrays.fill(tileDirty, true);
+        Arrays.fill(rowValid, false);
+    }
+
+    /**
+     * retourne la position, dans le tableau des tuiles, de la ligne donnée
+     * de la tuile donnée ; les lignes d'une tuile étant suivies de celles de
+     * la tuile suivante, la ligne peut aller jusqu'à 15 pour les sprites de
+     * 16 points de haut
+     *
+     * @param tile
+     *            le numéro de la tuile, comptée depuis le début de la mémoire
+     *            vidéo
+     * @param line
+     *            la ligne dans la tuile
+     * @return la position des 8 points de la ligne
+     */
+    int tileLine(int tile, int line) {
+        int t = tile + line / TILE_SIZE;
+        allocate();
+        if (tileDirty[t])
+            decode(t);
+        return t * TILE_PIXELS + (line % TILE_SIZE) * TILE_SIZE;
+    }
+
+    /**
+     * retourne la position, dans le tableau des lignes des tables, de la
+     * ligne donnée de la table donnée
+     *
+     * @param map
+     *            0 pour la table en 9800, 1 pour celle en 9C00
+     * @param unsignedTiles
+     *            vrai ssi les tuiles sont prises en 8000 (et non en 8800,
+     *            numérotées avec signe)
+     * @param line
+     *            la ligne, de 0 à 255
+     * @return la position des 256 points de la ligne
+     */
+    int mapLine(int map, boolean unsignedTiles, int line) {
+        int row = map * MAP_TILES + line / TILE_SIZE;
+        allocate();
+        if (!rowValid[row] || rowUnsigned[row] != unsignedTiles
+                || (rowBuilt[row] != writes && tilesWrittenSince(row)))
+            build(row, unsignedTiles);
+        rowBuilt[row] = writes;
+        return map * MAP_PIXELS + line * MAP_WIDTH;
+    }
+
+    private void allocate() {
+        if (tiles == null) {
+            tiles = new byte[TILE_COUNT * TILE_PIXELS];
+            maps = new byte[2 * MAP_PIXELS];
+        }
+    }
+
+    private boolean tilesWrittenSince(int row) {
+        boolean unsigned = rowUnsigned[row];
+        int map = mapAddress(row);
+        for (int i = 0; i < MAP_TILES; ++i)
+            if (tileWrites[tileNumber(videoRam.read(map + i),
+                    unsigned)] > rowBuilt[row])
+                return true;
+        return false;
+    }
+
+    private void build(int row, boolean unsignedTiles) {
+        int map = mapAddress(row);
+        int start = row * MAP_ROW_PIXELS;
+
+        for (int i = 0; i < MAP_TILES; ++i) {
+            int tile = tileNumber(videoRam.read(map + i), unsignedTiles);
+            for (int line = 0; line < TILE_SIZE; ++line)
+                System.arraycopy(tiles, tileLine(tile, line), maps,
+                        start + line * MAP_WIDTH + i * TILE_SIZE, TILE_SIZE);
+        }
+        rowValid[row] = true;
+        rowUnsigned[row] = unsignedTiles;
+    }
+
+    private void decode(int tile) {
+        int address = tile * TILE_BYTES;
+        for (int line = 0; line < TILE_SIZE; ++line) {
+            int lsb = videoRam.read(address + 2 * line);
+            int msb = videoRam.read(address + 2 * line + 1);
+            int start = tile * TILE_PIXELS + line * TILE_SIZE;
+            for (int i = 0; i < TILE_SIZE; ++i) {
+                int bit = TILE_SIZE - 1 - i;
+                tiles[start + i] = (byte) (((msb >>> bit) & 1) << 1
+                        | ((lsb >>> bit) & 1));
+            }
+        }
+        tileDirty[tile] = false;
+    }
+
+    /**
+     * retourne l'index, dans la mémoire vidéo, du début de la rangée de
+     * tuiles donnée
+     */
+    private static int mapAddress(int row) {
+        return AddressMap.BG_DISPLAY_DATA[row / MAP_TILES]
+                - AddressMap.VIDEO_RAM_START + (row % MAP_TILES) * MAP_TILES;
+    }
+
+    private static int tileNumber(int index, boolean unsignedTiles) {
+        return unsignedTiles ? index : SIGNED_OFFSET + (index ^ SIGNED_OFFSET);
+    }
+}
@@ -1,11 +1,14 @@
 
 package ch.epfl.gameboj.component.memory;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Banked;
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.Stateful;
 import ch.epfl.gameboj.component.cartridge.Cartridge;
 
 
@@ -16,7 +19,7 @@ import ch.epfl.gameboj.component.cartridge.Cartridge;
 *représente un controleur de la mémoire mortue du démarrage
 */
 
-public class BootRomController implements Component {
+public class BootRomController implements Component, Stateful, Banked {
 
     private final Cartridge cartridge;
 private    boolean active = true;
@@ -66,4 +69,70 @@ private    boolean active = true;
 
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Banked#bankAt(int)
+     */
+    @Override
+    public int bankAt(int address) {
+        return address >= 0 && address <= 255 && active ? BOOT_BANK
+                : cartridge.bankAt(address);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        // mémoire morte de démarrage active, puis l'état de la cartouche
+        return 1 + cartridge.stateSize();
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        buffer.put((byte) (active ? 1 : 0));
+        cartridge.saveState(buffer);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        active = buffer.get() != 0;
+        cartridge.loadState(buffer);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#checkState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void checkState(ByteBuffer buffer) {
+        byte a = buffer.get();
+        Preconditions.checkArgument(a == 0 || a == 1);
+        cartridge.checkState(buffer);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#copyStateFrom(ch.epfl.gameboj.component.Stateful)
+     */
+    @Override
+    public void copyStateFrom(Stateful other) {
+        Preconditions.checkArgument(other instanceof BootRomController);
+        BootRomController controller = (BootRomController) other;
+        active = controller.active;
+        cartridge.copyStateFrom(controller.cartridge);
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Component#isWriteTarget(int)
+     */
+    @Override
+    public boolean isWriteTarget(int address) {
+        return address == AddressMap.REG_BOOT_ROM_DISABLE
+                || Component.super.isWriteTarget(address);
+    }
+
 }
\ No newline at end of file
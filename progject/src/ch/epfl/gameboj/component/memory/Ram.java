@@ -1,16 +1,41 @@
 package ch.epfl.gameboj.component.memory;
 
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Stateful;
 
 /**
 *@author Alvaro Cauderan ( 282186)
 *@author Gauthier Boeshertz (283192)
 *représente une  mémoire vive la gameboy par un tableau
+*
+* Le contenu est découpé en pages de 256 octets, qui peuvent être partagées
+* par plusieurs mémoires après copyStateFrom (et qui, au départ, sont toutes
+* une même page nulle) : une page partagée n'est jamais modifiée, chaque
+* mémoire la copie avant d'y écrire pour la première fois.
+* Il n'y a pas de compteur de références : chaque mémoire sait seulement
+* quelles pages lui appartiennent, si bien que deux mémoires qui partagent
+* des pages peuvent être utilisées par deux fils différents sans aucune
+* synchronisation.
 */
 
-public class Ram {
+public class Ram implements Stateful {
     
-    private final byte[] ram;
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    // page nulle partagée par toutes les mémoires jusqu'à leur première
+    // écriture, jamais modifiée
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+
+    private final int size;
+    private final byte[][] pages;
+    // vrai ssi la page n'est partagée avec aucune autre mémoire
+    private final boolean[] owned;
 
     /**
      * construit une ram dont la taille est donné en argument
@@ -21,7 +46,11 @@ public class Ram {
     public Ram(int size) {
         
         Preconditions.checkArgument(size >= 0);
-        ram = new byte[size];
+        this.size = size;
+        int count = (size + PAGE_MASK) >>> PAGE_BITS;
+        pages = new byte[count][];
+        owned = new boolean[count];
+        Arrays.fill(pages, ZERO_PAGE);
     }
 
     /**
@@ -32,7 +61,7 @@ public class Ram {
 
     public int size() {
         
-        return ram.length;
+        return size;
     }
 
     /**
@@ -49,7 +78,7 @@ public class Ram {
     public int read(int index) {
         
         if (index >= 0 && index <= size()) {
-            return Byte.toUnsignedInt(ram[index]);
+            return Byte.toUnsignedInt(pages[index >>> PAGE_BITS][index & PAGE_MASK]);
         } 
         
         else {
@@ -71,11 +100,75 @@ public class Ram {
     public void write(int index, int value) {
         
         if (index >= 0 && index <= size()) {
-            ram[index] = (byte) (Preconditions.checkBits8(value));
+            int page = index >>> PAGE_BITS;
+            if (!owned[page]) {
+                pages[page] = pages[page].clone();
+                owned[page] = true;
+            }
+            pages[page][index & PAGE_MASK] = (byte) (Preconditions.checkBits8(value));
         }
         else {
             throw new IndexOutOfBoundsException();
         }
     }
 
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#stateSize()
+     */
+    @Override
+    public int stateSize() {
+        return size;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#saveState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void saveState(ByteBuffer buffer) {
+        if (buffer.remaining() < size)
+            throw new BufferOverflowException();
+        for (int i = 0; i < pages.length; ++i)
+            buffer.put(pages[i], 0, pageSize(i));
+    }
+
+    /* (non-Javadoc)
+     * @see ch.epfl.gameboj.component.Stateful#loadState(java.nio.ByteBuffer)
+     */
+    @Override
+    public void loadState(ByteBuffer buffer) {
+        if (buffer.remaining() < size)
+            throw new BufferUnderflowException();
+        for (int i = 0; i < pages.length; ++i) {
+            if (!owned[i]) {
+                pages[i] = new byte[PAGE_SIZE];
+                owned[i] = true;
+            }
+            buffer.get(pages[i], 0, pageSize(i));
+        }
+    }
+
+    /**
+     * partage les pages de la mémoire donnée, de même taille, qui devient
+     * comme celle-ci propriétaire d'aucune d'elles ; ne coûte donc qu'une
+     * copie du tableau des pages, les copies des pages n'ayant lieu que lors
+     * des écritures qui suivent
+     *
+     * @see ch.epfl.gameboj.component.Stateful#copyStateFrom(ch.epfl.gameboj.component.Stateful)
+     * @throws IllegalArgumentException
+     *             si la mémoire donnée n'est pas de la même taille
+     */
+    @Override
+    public void copyStateFrom(Stateful other) {
+        Preconditions.checkArgument(other instanceof Ram
+                && ((Ram) other).size == size);
+        Ram ram = (Ram) other;
+        System.arraycopy(ram.pages, 0, pages, 0, pages.length);
+        Arrays.fill(ram.owned, false);
+        Arrays.fill(owned, false);
+    }
+
+    private int pageSize(int page) {
+        return Math.min(PAGE_SIZE, size - (page << PAGE_BITS));
+    }
+
 }
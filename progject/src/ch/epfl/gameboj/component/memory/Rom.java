@@ -1,18 +1,22 @@
 package ch.epfl.gameboj.component.memory;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.zip.CRC32;
 
 import ch.epfl.gameboj.Preconditions;
 
 /**
 *@author Alvaro Cauderan ( 282186)
 *@author Gauthier Boeshertz (283192)
-*represente une  mémoire morte de la gameboy avec un tableau
+*represente une  mémoire morte de la gameboy avec un tampon en lecture
+*seule, qui peut être la projection en mémoire d'un fichier partagée par
+*plusieurs mémoires mortes
 */
 public final class Rom {
     
-    private final byte[] rom;
+    private final ByteBuffer rom;
 
     /**
      * construit une mémoire morte dont le contenu et la taille sont ceux du
@@ -25,7 +29,24 @@ public final class Rom {
     public Rom(byte[] data) {
         
    Objects.requireNonNull(data);
-        this.rom = Arrays.copyOf(data, data.length);
+        this.rom = ByteBuffer.wrap(Arrays.copyOf(data, data.length))
+                .asReadOnlyBuffer();
+    }
+
+    /**
+     * construit une mémoire morte dont le contenu est celui du tampon donné,
+     * entre sa position et sa limite, sans le copier ; le tampon, par exemple
+     * obtenu par FileChannel.map, peut ainsi être partagé par plusieurs
+     * mémoires mortes
+     * 
+     * @param data donne le contenu de la mémoire
+     * 
+     * @throws NullPointerException si l'argument est nul
+     */
+    public Rom(ByteBuffer data) {
+
+        Objects.requireNonNull(data);
+        this.rom = data.asReadOnlyBuffer().slice();
     }
 
     /**
@@ -34,7 +55,7 @@ public final class Rom {
      * @return la taille du tableau
      */
     public int size() {
-        return rom.length;
+        return rom.capacity();
 
     }
 
@@ -50,11 +71,23 @@ public final class Rom {
     public int read(int index) {
         
         if (index >= 0 && index < size()) {
-            return Byte.toUnsignedInt(rom[index]);
+            return Byte.toUnsignedInt(rom.get(index));
 
         } else {
 
             throw new IndexOutOfBoundsException();
         }
     }
+
+    /**
+     * retourne la somme de contrôle CRC32 du contenu de la mémoire morte,
+     * qui permet de vérifier que deux mémoires mortes sont égales
+     * 
+     * @return les 32 bits de la somme de contrôle
+     */
+    public int checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(rom.duplicate());
+        return (int) crc.getValue();
+    }
 }
@@ -0,0 +1,143 @@
+package ch.epfl.gameboj.component.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import ch.epfl.gameboj.Preconditions;
+
+/**
+*@author Alvaro Cauderan ( 282186)
+*@author Gauthier Boeshertz (283192)
+*représente un cache de mémoires mortes chargées depuis des fichiers, partagé
+*par toutes les gameboys qui utilisent la même cartouche.
+*
+*Un fichier est identifié par son chemin, sa date de modification et sa
+*taille, de sorte qu'un fichier modifié est rechargé. Les mémoires mortes
+*sont immuables et peuvent donc être partagées sans copie ; lorsque leur
+*taille totale dépasse le budget du cache, les moins récemment demandées
+*sont oubliées (elles restent utilisables par les gameboys qui les ont).
+*/
+public final class RomCache {
+
+    private static final long DEFAULT_BUDGET = 64L << 20;
+    private static final RomCache SHARED = new RomCache(DEFAULT_BUDGET);
+
+    private final long budget;
+    private long size = 0;
+    private final Map<Key, Rom> roms = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * construit un cache vide dont les mémoires mortes occupent au plus le
+     * nombre d'octets donné
+     *
+     * @param budget le nombre maximum d'octets gardés par le cache
+     * @throws IllegalArgumentException si le budget est négatif
+     */
+    public RomCache(long budget) {
+        Preconditions.checkArgument(budget >= 0);
+        this.budget = budget;
+    }
+
+    /**
+     * retourne le cache partagé par tout le programme, dont le budget est de
+     * 64 Mo
+     *
+     * @return le cache partagé
+     */
+    public static RomCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * retourne la mémoire morte dont le contenu est celui du fichier donné,
+     * en la projetant en mémoire si elle n'est pas déjà dans le cache
+     *
+     * @param romFile le fichier de la mémoire morte
+     * @return la mémoire morte, partagée
+     * @throws IOException en cas d'erreur d'entrée-sortie
+     * @throws NullPointerException si le fichier est nul
+     */
+    public synchronized Rom get(File romFile) throws IOException {
+        Objects.requireNonNull(romFile);
+
+        Path path = romFile.toPath().toRealPath();
+        Key key = new Key(path, romFile.lastModified(), romFile.length());
+
+        Rom rom = roms.get(key);
+        if (rom == null) {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.READ)) {
+                rom = new Rom(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+            }
+            if (rom.size() <= budget) {
+                roms.put(key, rom);
+                size += rom.size();
+                evict();
+            }
+        }
+        return rom;
+    }
+
+    /**
+     * retourne le nombre d'octets des mémoires mortes gardées par le cache
+     *
+     * @return la taille du cache
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * vide le cache
+     */
+    public synchronized void clear() {
+        roms.clear();
+        size = 0;
+    }
+
+    private void evict() {
+        Iterator<Rom> eldest = roms.values().iterator();
+        while (size > budget) {
+            size -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * identifie une version d'un fichier
+     */
+    private static final class Key {
+        private final Path path;
+        private final long lastModified;
+        private final long length;
+
+        private Key(Path path, long lastModified, long length) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return path.equals(other.path)
+                    && lastModified == other.lastModified
+                    && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModified, length);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package ch.epfl.gameboj.gui;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.movie.MoviePlayer;
+import ch.epfl.gameboj.movie.MovieRecorder;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Fait évoluer une gameboy sur son propre fil d'exécution, à une
+ *         vitesse multiple de celle de la vraie console, ou aussi vite que
+ *         possible, et met à disposition la dernière image calculée.
+ *
+ *         Après une pause (fil suspendu, machine chargée), le retard rattrapé
+ *         est limité à quelques images ; les images calculées que l'affichage
+ *         n'a pas eu le temps de prendre sont simplement remplacées par les
+ *         suivantes.
+ *
+ *         Aucun des deux fils n'attend jamais l'autre : les images passent
+ *         par un triple tampon (l'émulation écrit dans le sien, l'affichage
+ *         lit le sien, et ils échangent le leur avec celui du milieu de façon
+ *         atomique), et les touches par une file non bloquante vidée par
+ *         l'émulation avant chaque image.
+ *
+ *         Les touches et l'évolution de la gameboy peuvent passer par un
+ *         enregistreur de film, ou être remplacées par la lecture d'un film.
+ *
+ *         Une exception levée par la gameboy arrête l'émulation ; elle est
+ *         gardée pour que l'affichage puisse la signaler.
+ */
+final class Emulation {
+
+    /**
+     * vitesse qui correspond à une émulation aussi rapide que possible
+     */
+    static final double UNCAPPED = Double.POSITIVE_INFINITY;
+
+    private static final long MAX_CATCH_UP = 4 * GameBoy.CYCLES_PER_FRAME;
+
+    // bit du tampon du milieu indiquant qu'il contient une image pas encore
+    // prise par l'affichage
+    private static final int FRESH = 0b100;
+    private static final int INDEX_MASK = 0b11;
+
+    private final GameBoy gameBoy;
+    private final MovieRecorder recorder;
+    private final MoviePlayer player;
+    private final Thread thread;
+    private volatile double speed = 1;
+    private volatile boolean running = true;
+    private volatile Throwable failure = null;
+
+    private final Queue<Runnable> keyEvents = new ConcurrentLinkedQueue<>();
+
+    // triple tampon : index du tampon du milieu (et FRESH), de celui de
+    // l'émulation et de celui de l'affichage
+    private final int[][] frames = new int[3][LcdController.LCD_WIDTH
+            * LcdController.LCD_HEIGHT];
+    private final AtomicInteger middle = new AtomicInteger(0);
+    private int back = 1;
+    private int front = 2;
+
+    /**
+     * construit l'émulation de la gameboy donnée, sans la démarrer
+     *
+     * @param gameBoy
+     *            la gameboy, qui ne doit plus être utilisée directement par un
+     *            autre fil
+     * @throws NullPointerException
+     *             si la gameboy est nulle
+     */
+    Emulation(GameBoy gameBoy) {
+        this(gameBoy, null, null);
+    }
+
+    /**
+     * construit l'émulation de la gameboy donnée, sans la démarrer, qui
+     * enregistre ou rejoue un film
+     *
+     * @param gameBoy
+     *            la gameboy, qui ne doit plus être utilisée directement par un
+     *            autre fil
+     * @param recorder
+     *            l'enregistreur de la gameboy, ou null
+     * @param player
+     *            le lecteur de film de la gameboy, ou null ; les touches sont
+     *            alors ignorées
+     * @throws NullPointerException
+     *             si la gameboy est nulle
+     */
+    Emulation(GameBoy gameBoy, MovieRecorder recorder, MoviePlayer player) {
+        this.gameBoy = Objects.requireNonNull(gameBoy);
+        this.recorder = recorder;
+        this.player = player;
+        this.thread = new Thread(this::run, "gameboj-emulation");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * démarre le fil d'émulation
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * arrête le fil d'émulation, à la fin de l'image en cours, et attend
+     * qu'il soit arrêté
+     *
+     * @throws InterruptedException
+     *             si le fil appelant est interrompu pendant l'attente
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    /**
+     * change la vitesse de l'émulation
+     *
+     * @param speed
+     *            le multiple de la vitesse de la vraie console, ou UNCAPPED
+     * @throws IllegalArgumentException
+     *             si la vitesse n'est pas strictement positive
+     */
+    void setSpeed(double speed) {
+        Preconditions.checkArgument(speed > 0);
+        this.speed = speed;
+    }
+
+    /**
+     * retourne la vitesse de l'émulation
+     *
+     * @return le multiple de la vitesse de la vraie console, ou UNCAPPED
+     */
+    double speed() {
+        return speed;
+    }
+
+    /**
+     * retourne la dernière image calculée si elle n'a pas encore été prise
+     * par cette méthode, sans jamais attendre le fil d'émulation ; doit
+     * toujours être appelée depuis le même fil
+     *
+     * @return les couleurs ARGB de l'image, valables jusqu'à l'appel suivant,
+     *         ou null s'il n'y a pas de nouvelle image
+     */
+    int[] takeFrame() {
+        if ((middle.get() & FRESH) == 0)
+            return null;
+        front = middle.getAndSet(front) & INDEX_MASK;
+        return frames[front];
+    }
+
+    /**
+     * retourne l'exception qui a arrêté l'émulation, le cas échéant
+     *
+     * @return l'exception levée par la gameboy, ou null si l'émulation ne
+     *         s'est pas arrêtée sur une erreur
+     */
+    Throwable failure() {
+        return failure;
+    }
+
+    /**
+     * simule l'appui sur la touche donnée, au début de la prochaine image
+     *
+     * @param key
+     *            la touche
+     * @throws NullPointerException
+     *             si la touche est nulle
+     */
+    void keyPressed(Joypad.Key key) {
+        Objects.requireNonNull(key);
+        keyEvents.add(() -> {
+            if (recorder != null)
+                recorder.keyPressed(key);
+            else if (player == null)
+                gameBoy.joypad().keyPressed(key);
+        });
+    }
+
+    /**
+     * simule le relâchement de la touche donnée, au début de la prochaine
+     * image
+     *
+     * @param key
+     *            la touche
+     * @throws NullPointerException
+     *             si la touche est nulle
+     */
+    void keyReleased(Joypad.Key key) {
+        Objects.requireNonNull(key);
+        keyEvents.add(() -> {
+            if (recorder != null)
+                recorder.keyReleased(key);
+            else if (player == null)
+                gameBoy.joypad().keyReleased(key);
+        });
+    }
+
+    private void run() {
+        try {
+            emulate();
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            running = false;
+        }
+    }
+
+    private void emulate() {
+        LcdController lcd = gameBoy.getLcdController();
+        int[] published = null;
+        double target = gameBoy.cycles();
+        long last = System.nanoTime();
+
+        while (running) {
+            long now = System.nanoTime();
+            double currentSpeed = speed;
+            long cycles = gameBoy.cycles();
+            long next = cycles + GameBoy.CYCLES_PER_FRAME;
+
+            if (currentSpeed == UNCAPPED) {
+                target = next;
+            } else {
+                target += (now - last) * GameBoy.CYCLES_PER_NANOSECOND
+                        * currentSpeed;
+                target = Math.min(target, cycles + MAX_CATCH_UP);
+            }
+            last = now;
+
+            if (target < next) {
+                LockSupport.parkNanos((long) ((next - target)
+                        / (GameBoy.CYCLES_PER_NANOSECOND * currentSpeed)));
+                continue;
+            }
+
+            // une image à la fois, pour que les touches soient prises en
+            // compte rapidement
+            Runnable event;
+            while ((event = keyEvents.poll()) != null)
+                event.run();
+
+            if (recorder != null)
+                recorder.runUntil(next);
+            else if (player != null)
+                player.runUntil(next);
+            else
+                gameBoy.runUntil(next);
+            // le tampon de l'écran change de tableau à chaque image
+            if (lcd.argbFrameBuffer() != published) {
+                published = lcd.argbFrameBuffer();
+                System.arraycopy(published, 0, frames[back], 0,
+                        published.length);
+                back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+            }
+        }
+    }
+}
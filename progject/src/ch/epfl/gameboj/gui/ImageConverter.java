@@ -9,6 +9,7 @@ import ch.epfl.gameboj.component.lcd.LcdController;
 import ch.epfl.gameboj.component.lcd.LcdImage;
 import javafx.scene.image.Image;
 import javafx.scene.image.WritableImage;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelReader;
 import javafx.scene.image.PixelWriter;
 
@@ -68,4 +69,28 @@ public final class ImageConverter {
 
     }
 
+    /**
+     * Copie en une seule fois le tampon ARGB d'une image de l'écran dans une
+     * image JavaFX réutilisée d'une image à l'autre
+     * 
+     * @param argb
+     *            le tampon ARGB, tel que retourné par
+     *            {@link LcdController#argbFrameBuffer()}
+     * @param image
+     *            l'image JavaFX à mettre à jour
+     * @throws IllegalArgumentException
+     *             si l'image ou le tampon n'ont pas la taille de l'écran
+     */
+    public static void update(int[] argb, WritableImage image) {
+        Preconditions.checkArgument(
+                argb.length == LcdController.LCD_WIDTH * LcdController.LCD_HEIGHT);
+        Preconditions.checkArgument(
+                image.getWidth() == LcdController.LCD_WIDTH
+                        && image.getHeight() == LcdController.LCD_HEIGHT);
+
+        image.getPixelWriter().setPixels(0, 0, LcdController.LCD_WIDTH,
+                LcdController.LCD_HEIGHT, PixelFormat.getIntArgbInstance(),
+                argb, 0, LcdController.LCD_WIDTH);
+    }
+
 }
@@ -4,6 +4,7 @@ import javafx.scene.Group;
 import javafx.scene.Scene;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.HBox;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
@@ -19,7 +20,11 @@ import java.awt.Robot;
 import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 
 import javax.imageio.ImageIO;
@@ -31,7 +36,9 @@ import ch.epfl.gameboj.Preconditions;
 import ch.epfl.gameboj.component.cartridge.Cartridge;
 import ch.epfl.gameboj.component.lcd.LcdController;
 import ch.epfl.gameboj.component.lcd.LcdImage;
-import ch.epfl.gameboj.gui.SceneCaptureUtility.PlaybackSettings;
+import ch.epfl.gameboj.movie.Movie;
+import ch.epfl.gameboj.movie.MoviePlayer;
+import ch.epfl.gameboj.movie.MovieRecorder;
 import javafx.application.Application;
 import javafx.application.Application.Parameters;
 import javafx.embed.swing.SwingFXUtils;
@@ -55,6 +62,35 @@ public final class Main extends Application {
     private static final HashMap<KeyCode, Joypad.Key> mapArrows = new HashMap<>(
             4);
 
+    /**
+     * vitesse de l'avance rapide si elle n'est pas donnée par l'argument
+     * --fastForward (un multiple de la vitesse normale, ou max)
+     */
+    private static final double DEFAULT_FAST_FORWARD = 4;
+
+    /**
+     * intervalle entre deux états clefs des films enregistrés avec
+     * l'argument --record, une dizaine de secondes
+     */
+    private static final long MOVIE_KEYFRAME_INTERVAL = 600
+            * GameBoy.CYCLES_PER_FRAME;
+
+    /**
+     * retourne la vitesse de l'avance rapide donnée par l'argument
+     * --fastForward, ou NaN s'il n'est ni un nombre ni max
+     */
+    private static double parseFastForward(String fast) {
+        if (fast == null)
+            return DEFAULT_FAST_FORWARD;
+        if (fast.equals("max"))
+            return Emulation.UNCAPPED;
+        try {
+            return Double.parseDouble(fast);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
     // private static final HashMap<>
     public static void main(String[] args) {
         Application.launch(args);
@@ -75,7 +111,15 @@ public final class Main extends Application {
     @Override
     public void start(Stage stage) throws Exception {
 
-        if (getParameters().getRaw().size() != 1) {
+        if (getParameters().getUnnamed().size() != 1) {
+            System.exit(1);
+        }
+        String fast = getParameters().getNamed().get("fastForward");
+        double fastForward = parseFastForward(fast);
+        if (!(fastForward > 0)) {
+            // sinon refusée seulement par Emulation.setSpeed, une fois le jeu
+            // lancé, au premier appui sur la touche d'avance rapide
+            System.err.println("--fastForward must be a positive number or max");
             System.exit(1);
         }
 
@@ -89,10 +133,35 @@ public final class Main extends Application {
         mapArrows.put(KeyCode.RIGHT, Key.RIGHT);
         mapArrows.put(KeyCode.LEFT, Key.LEFT);
 
-        String gameName = getParameters().getRaw().get(0);
+        String gameName = getParameters().getUnnamed().get(0);
         File romFile = new File(gameName);
         GameBoy gb = new GameBoy(Cartridge.ofFile(romFile));
-        Joypad joypad = gb.joypad();
+
+        // --record=<fichier> enregistre les touches dans un film écrit à la
+        // fermeture, --replay=<fichier> rejoue un film à la place du clavier
+        String record = getParameters().getNamed().get("record");
+        String replay = getParameters().getNamed().get("replay");
+        if (record != null && replay != null) {
+            // le film rejoué remplacerait l'état enregistré au début
+            System.err.println("--record and --replay cannot be used together");
+            System.exit(1);
+        }
+        MovieRecorder recorder = record == null ? null
+                : new MovieRecorder(gb, MOVIE_KEYFRAME_INTERVAL);
+        MoviePlayer player = null;
+        if (replay != null) {
+            try (InputStream in = new FileInputStream(replay)) {
+                player = new MoviePlayer(gb, Movie.read(in));
+            } catch (IllegalArgumentException e) {
+                System.err.println(
+                        "--replay: the movie was recorded with another cartridge");
+                System.exit(1);
+            }
+        }
+
+        // la gameboy évolue sur son propre fil, elle n'est plus utilisée
+        // directement depuis celui de JavaFX
+        Emulation emulation = new Emulation(gb, recorder, player);
 
         // Group root = new Group();
         ImageView imageView = new ImageView();
@@ -100,8 +169,10 @@ public final class Main extends Application {
         Scene scene = new Scene(border);
         // imageView.setFitHeight( 2*LcdController.LCD_HEIGHT);
         // imageView.setFitWidth(2 * LcdController.LCD_WIDTH);
-        imageView.setImage(
-                ImageConverter.convert(gb.getLcdController().currentImage()));
+        WritableImage screen = new WritableImage(LcdController.LCD_WIDTH,
+                LcdController.LCD_HEIGHT);
+        ImageConverter.update(gb.getLcdController().argbFrameBuffer(), screen);
+        imageView.setImage(screen);
 
         imageView.fitWidthProperty().bind(scene.widthProperty());
         imageView.fitHeightProperty().bind(scene.heightProperty());
@@ -121,20 +192,20 @@ public final class Main extends Application {
             Joypad.Key key = mapArrows.get(e.getCode());
             Joypad.Key keyLetter = mapLetters.get(e.getText());
             if (key != null) {
-                joypad.keyPressed(key);
+                emulation.keyPressed(key);
             } else {
                 if (mapLetters.get(e.getText()) != null) {
-                    joypad.keyPressed(keyLetter);
+                    emulation.keyPressed(keyLetter);
                 }
                 else {
                   
                     if (e.getText().equals("i")) {
-                        LcdImage li = gb.getLcdController().currentImage();
-                        BufferedImage i = new BufferedImage(li.getWidth(),
-                                li.getHeight(), BufferedImage.TYPE_INT_RGB);
+                        // l'image affichée, la gameboy étant sur un autre fil
+                        BufferedImage i = new BufferedImage(LcdController.LCD_WIDTH,
+                                LcdController.LCD_HEIGHT, BufferedImage.TYPE_INT_RGB);
                         
                         try {         
-                            ImageIO.write(SwingFXUtils.fromFXImage(ImageConverter.convert(li), i), "png", new File("screenshot taken " + d + ".png"));
+                            ImageIO.write(SwingFXUtils.fromFXImage(screen, i), "png", new File("screenshot taken " + d + ".png"));
                             
                         } catch (IOException e1) {
 
@@ -144,6 +215,11 @@ public final class Main extends Application {
                 if(e.getText().equals("l")) {
                     
                 }
+                // avance rapide
+                if (e.getText().equals("f")) {
+                    emulation.setSpeed(
+                            emulation.speed() == 1 ? fastForward : 1);
+                }
 
             }
         });
@@ -152,10 +228,10 @@ public final class Main extends Application {
             Joypad.Key key = mapArrows.get(e.getCode());
             Joypad.Key keyLetter = mapLetters.get(e.getText());
             if (key != null) {
-                joypad.keyReleased(key);
+                emulation.keyReleased(key);
             } else {
                 if (mapLetters.get(e.getText()) != null) {
-                    joypad.keyReleased(keyLetter);
+                    emulation.keyReleased(keyLetter);
                 } else {
 
                 }
@@ -164,20 +240,38 @@ public final class Main extends Application {
         });
         
 
-        long start = System.nanoTime();
+        // seule la dernière image calculée est affichée, les autres sont
+        // sautées
         AnimationTimer timer = new AnimationTimer() {
             @Override
             public void handle(long now) {
-                long elapsed = now - start;
-                long elapsedCycles = (long) (elapsed
-                        * GameBoy.CYCLES_PER_NANOSECOND);
+                int[] frame = emulation.takeFrame();
+                if (frame != null)
+                    ImageConverter.update(frame, screen);
 
-                gb.runUntil(elapsedCycles);
-                imageView.setImage(ImageConverter
-                        .convert(gb.getLcdController().currentImage()));
+                // l'émulation s'est arrêtée sur une erreur de la gameboy
+                Throwable failure = emulation.failure();
+                if (failure != null) {
+                    stop();
+                    stage.setTitle("gameboj - emulation stopped: " + failure);
+                    failure.printStackTrace();
+                }
 
             }
         };
+        stage.setOnCloseRequest(e -> {
+            try {
+                emulation.stop();
+                if (recorder != null) {
+                    try (OutputStream out = new FileOutputStream(record)) {
+                        recorder.movie().write(out);
+                    }
+                }
+            } catch (IOException | InterruptedException e1) {
+                System.err.println("movie not saved: " + e1);
+            }
+        });
+        emulation.start();
         timer.start();
 
     }
@@ -0,0 +1,177 @@
+package ch.epfl.gameboj.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.lcd.LcdController;
+import ch.epfl.gameboj.component.lcd.LcdImage;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Lance, sans interface graphique et aussi vite que possible, une
+ *         gameboy par cartouche d'une liste, réparties sur autant de fils
+ *         d'exécution que de processeurs, et écrit pour chacune le nombre de
+ *         cycles effectués, le hachage de la dernière image et la durée.
+ *
+ *         La liste contient une cartouche par ligne, suivie du nombre de
+ *         cycles à simuler ou, s'il est suivi de f, du nombre d'images,
+ *         séparés par des espaces ou des tabulations. Les lignes vides et
+ *         celles qui commencent par # sont ignorées.
+ */
+public final class BatchRunner {
+
+    private static final String FRAMES_SUFFIX = "f";
+    private static final String HEADER = "rom,cycles,frame_crc32,millis,speed,error";
+
+    private BatchRunner() {
+    }
+
+    /**
+     * Lance les cartouches de la liste donnée et écrit les résultats sur la
+     * sortie standard, dans l'ordre de la liste
+     *
+     * @param args
+     *            le fichier contenant la liste des cartouches, puis
+     *            éventuellement le nombre de fils d'exécution à utiliser
+     * @throws IOException
+     *             si la liste ne peut pas être lue
+     * @throws InterruptedException
+     *             si le fil principal est interrompu
+     */
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: BatchRunner <rom list> [threads]");
+            System.exit(1);
+        }
+
+        int threads = args.length == 2 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        Preconditions.checkArgument(threads > 0);
+
+        // toute la liste est lue avant de lancer la moindre cartouche, pour
+        // qu'une ligne invalide ne laisse pas de fils d'exécution en route
+        List<String> roms = new ArrayList<>();
+        List<Long> budgets = new ArrayList<>();
+        List<String> lines = Files.readAllLines(Paths.get(args[0]),
+                StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); ++i) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] fields = line.split("\\s+");
+            try {
+                Preconditions.checkArgument(fields.length == 2);
+                budgets.add(parseBudget(fields[1]));
+            } catch (IllegalArgumentException e) {
+                System.err.println(args[0] + ":" + (i + 1)
+                        + ": expected <rom> <cycles>[f]: " + line);
+                System.exit(1);
+            }
+            roms.add(fields[0]);
+        }
+
+        List<Future<String>> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < roms.size(); ++i) {
+            String rom = roms.get(i);
+            long cycles = budgets.get(i);
+            results.add(executor.submit(() -> run(rom, cycles)));
+        }
+        executor.shutdown();
+
+        System.out.println(HEADER);
+        for (Future<String> result : results) {
+            try {
+                System.out.println(result.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private static long parseBudget(String budget) {
+        long value;
+        if (budget.endsWith(FRAMES_SUFFIX)) {
+            value = Long.parseLong(budget.substring(0,
+                    budget.length() - FRAMES_SUFFIX.length()))
+                    * GameBoy.CYCLES_PER_FRAME;
+        } else {
+            value = Long.parseLong(budget);
+        }
+        Preconditions.checkArgument(value >= 0);
+        return value;
+    }
+
+    /**
+     * Simule la cartouche donnée durant le nombre de cycles donné
+     *
+     * @param rom
+     *            le chemin de la cartouche
+     * @param cycles
+     *            le nombre de cycles à simuler
+     * @return la ligne de résultat de la cartouche
+     */
+    private static String run(String rom, long cycles) {
+        GameBoy gb = null;
+        String error = "";
+        long start = System.nanoTime();
+
+        try {
+            gb = new GameBoy(Cartridge.ofFile(new File(rom)));
+            gb.runUntil(cycles);
+        } catch (IOException | RuntimeException | Error e) {
+            error = e.getClass().getSimpleName()
+                    + (e.getMessage() == null ? "" : ": " + e.getMessage());
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long done = gb == null ? 0 : gb.cycles();
+        String crc = gb == null ? ""
+                : String.format("%08x",
+                        frameHash(gb.getLcdController().currentImage()));
+        double speed = elapsed == 0 ? 0
+                : done / (elapsed * GameBoy.CYCLES_PER_NANOSECOND);
+
+        return String.format(Locale.ROOT, "%s,%d,%s,%d,%.2f,%s", rom, done,
+                crc, elapsed / 1_000_000, speed, error.replace(',', ';'));
+    }
+
+    /**
+     * Retourne le hachage CRC32 des couleurs des points de l'image donnée, qui
+     * ne dépend que de ce qui est affiché
+     *
+     * @param image
+     *            l'image dont on calcule le hachage
+     * @return le hachage de l'image
+     */
+    public static long frameHash(LcdImage image) {
+        CRC32 crc = new CRC32();
+        byte[] line = new byte[LcdController.LCD_WIDTH];
+
+        for (int y = 0; y < image.getHeight(); ++y) {
+            for (int x = 0; x < image.getWidth(); ++x)
+                line[x] = (byte) image.getColor(x, y);
+            crc.update(line, 0, image.getWidth());
+        }
+        return crc.getValue();
+    }
+}
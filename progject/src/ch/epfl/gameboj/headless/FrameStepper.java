@@ -0,0 +1,210 @@
+package ch.epfl.gameboj.headless;
+
+import java.util.Objects;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Joypad;
+import ch.epfl.gameboj.component.lcd.LcdController;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Fait avancer une gameboy de plusieurs images en un seul appel, en
+ *         appuyant sur les touches données par un script, et retourne des
+ *         observations compactes prises toutes les n images : l'image de
+ *         l'écran, quatre points par octet, les octets de mémoire choisis et
+ *         le nombre de cycles.
+ *
+ *         Le résultat et ses tableaux sont réutilisés d'un appel à l'autre,
+ *         afin qu'un programme d'apprentissage qui appelle run des millions
+ *         de fois n'alloue rien. Les touches de la gameboy ne doivent être
+ *         changées que par cet objet.
+ */
+public final class FrameStepper {
+
+    /**
+     * nombre d'octets d'une image compacte : la couleur (de 0 à 3) du point
+     * p est stockée dans les bits 2 * (p % 4) et suivant de l'octet p / 4,
+     * les points étant pris ligne par ligne
+     */
+    public static final int FRAME_BYTES = LcdController.LCD_WIDTH
+            * LcdController.LCD_HEIGHT / 4;
+
+    private static final Joypad.Key[] KEYS = Joypad.Key.values();
+
+    private final GameBoy gameBoy;
+    private final int[] addresses;
+    private final Result result;
+    private int pressed = 0;
+
+    /**
+     * Observations prises pendant un appel à run, valables jusqu'à l'appel
+     * suivant ; les tableaux peuvent être plus grands que le nombre
+     * d'observations
+     */
+    public static final class Result {
+
+        private int samples = 0;
+        private byte[] frames = new byte[0];
+        private byte[] memory = new byte[0];
+        private long[] cycles = new long[0];
+
+        private Result() {
+        }
+
+        /**
+         * retourne le nombre d'observations
+         *
+         * @return le nombre d'observations
+         */
+        public int samples() {
+            return samples;
+        }
+
+        /**
+         * retourne les images compactes des observations, l'image de
+         * l'observation i commençant à l'index i * FRAME_BYTES
+         *
+         * @return les images compactes
+         */
+        public byte[] frames() {
+            return frames;
+        }
+
+        /**
+         * retourne les octets de mémoire des observations, ceux de
+         * l'observation i commençant à l'index i fois le nombre d'adresses
+         * observées, dans l'ordre de ces adresses
+         *
+         * @return les octets de mémoire
+         */
+        public byte[] memory() {
+            return memory;
+        }
+
+        /**
+         * retourne le nombre de cycles effectués par la gameboy lors de
+         * chaque observation
+         *
+         * @return les nombres de cycles
+         */
+        public long[] cycles() {
+            return cycles;
+        }
+
+        private void reset(int samples, int addresses) {
+            this.samples = 0;
+            if (cycles.length < samples) {
+                frames = new byte[samples * FRAME_BYTES];
+                memory = new byte[samples * addresses];
+                cycles = new long[samples];
+            }
+        }
+    }
+
+    /**
+     * construit un objet qui fait avancer la gameboy donnée et observe les
+     * octets aux adresses données
+     *
+     * @param gameBoy
+     *            la gameboy
+     * @param addresses
+     *            les adresses observées
+     * @throws NullPointerException
+     *             si la gameboy ou les adresses sont nulles
+     * @throws IllegalArgumentException
+     *             si une des adresses n'est pas une valeur de 16 bits
+     */
+    public FrameStepper(GameBoy gameBoy, int[] addresses) {
+        this.gameBoy = Objects.requireNonNull(gameBoy);
+        this.addresses = addresses.clone();
+        for (int address : this.addresses)
+            Preconditions.checkBits16(address);
+        this.result = new Result();
+    }
+
+    /**
+     * fait avancer la gameboy du nombre d'images donné et l'observe après
+     * chaque n-ième image et après la dernière ; les images observées sont
+     * calculées quelle que soit la politique de rendu de l'écran
+     *
+     * @param frames
+     *            le nombre d'images
+     * @param keys
+     *            les touches enfoncées pendant chaque image, le bit i de
+     *            keys[f] correspondant à Joypad.Key.values()[i] ; les touches
+     *            ne changent plus après la fin du tableau
+     * @param sampleEvery
+     *            l'intervalle n entre deux observations, en images
+     * @return les observations, valables jusqu'au prochain appel
+     * @throws NullPointerException
+     *             si le script est nul
+     * @throws IllegalArgumentException
+     *             si le nombre d'images est négatif ou l'intervalle n'est pas
+     *             strictement positif
+     */
+    public Result run(int frames, byte[] keys, int sampleEvery) {
+        Objects.requireNonNull(keys);
+        Preconditions.checkArgument(frames >= 0 && sampleEvery > 0);
+
+        int samples = frames / sampleEvery
+                + (frames % sampleEvery == 0 ? 0 : 1);
+        result.reset(samples, addresses.length);
+
+        LcdController lcd = gameBoy.getLcdController();
+        for (int f = 0; f < frames; ++f) {
+            if (f < keys.length)
+                press(Byte.toUnsignedInt(keys[f]));
+
+            // l'image affichée à la fin d'une image observée doit être
+            // calculée, même si l'écran ne calcule ses images qu'à la
+            // demande ; selon la phase de l'écran, elle a commencé durant
+            // cette image ou la précédente
+            boolean sampled = isSampled(f, frames, sampleEvery);
+            if (sampled || isSampled(f + 1, frames, sampleEvery))
+                lcd.requestFrame();
+
+            gameBoy.runUntil(gameBoy.cycles() + GameBoy.CYCLES_PER_FRAME);
+
+            if (sampled)
+                sample(lcd);
+        }
+        return result;
+    }
+
+    private static boolean isSampled(int f, int frames, int sampleEvery) {
+        return (f + 1) % sampleEvery == 0 || f + 1 == frames;
+    }
+
+    private void press(int keys) {
+        int changed = keys ^ pressed;
+        for (int i = 0; changed != 0; ++i, changed >>>= 1) {
+            if ((changed & 1) == 0)
+                continue;
+            if ((keys >>> i & 1) != 0)
+                gameBoy.joypad().keyPressed(KEYS[i]);
+            else
+                gameBoy.joypad().keyReleased(KEYS[i]);
+        }
+        pressed = keys;
+    }
+
+    private void sample(LcdController lcd) {
+        int s = result.samples++;
+        result.cycles[s] = gameBoy.cycles();
+
+        for (int i = 0; i < addresses.length; ++i)
+            result.memory[s * addresses.length + i] = (byte) gameBoy.bus()
+                    .read(addresses[i]);
+
+        byte[] pixels = lcd.frameBuffer();
+        int offset = s * FRAME_BYTES;
+        for (int i = 0; i < FRAME_BYTES; ++i) {
+            int p = i << 2;
+            result.frames[offset + i] = (byte) (pixels[p] | pixels[p + 1] << 2
+                    | pixels[p + 2] << 4 | pixels[p + 3] << 6);
+        }
+    }
+}
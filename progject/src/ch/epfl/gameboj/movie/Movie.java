@@ -0,0 +1,329 @@
+package ch.epfl.gameboj.movie;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import ch.epfl.gameboj.component.Joypad;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Film enregistré par MovieRecorder : les appuis et relâchements des
+ *         touches d'une gameboy, datés par son nombre de cycles, et des états
+ *         clefs (sauvegardes compressées de GameBoy.snapshot) pris à
+ *         intervalle régulier, le premier au début de l'enregistrement.
+ *
+ *         Le fichier commence par un en-tête (identifiant du format, version,
+ *         somme de contrôle CRC32 de la mémoire morte de la cartouche, taille
+ *         des sauvegardes de la gameboy) suivi d'une suite d'enregistrements
+ *         dans l'ordre chronologique, chacun formé du nombre de cycles écoulés
+ *         depuis le précédent, codé sur un nombre variable d'octets (7 bits
+ *         par octet, le bit de poids fort indiquant qu'un octet suit), puis
+ *         d'un octet de type : pour une touche, son numéro multiplié par deux,
+ *         plus un si elle est appuyée ; pour un état clef, KEYFRAME suivi de
+ *         la taille de l'état compressé puis de ses octets ; pour la fin du
+ *         film, END. Une heure de jeu ne coûte donc que quelques octets par
+ *         touche, plus les états clefs.
+ */
+public final class Movie {
+
+    private static final int MAGIC = 0x47424A4D; // "GBJM"
+    private static final short VERSION = 2;
+    static final int KEYFRAME = 0x80;
+    static final int END = 0x81;
+
+    private static final Joypad.Key[] KEYS = Joypad.Key.values();
+    private static final int VARINT_BITS = 7;
+    private static final int VARINT_MORE = 1 << VARINT_BITS;
+    private static final int VARINT_MASK = VARINT_MORE - 1;
+    // taille des morceaux dans lesquels un état clef est lu
+    private static final int READ_CHUNK = 1 << 16;
+
+    private final int romChecksum;
+    private final int snapshotSize;
+    private final long[] eventCycles;
+    private final byte[] events;
+    private final long[] keyframeCycles;
+    private final int[] keyframeEvents;
+    private final byte[][] keyframes;
+    private final long endCycle;
+
+    /**
+     * construit un film à partir de tableaux qui ne sont pas copiés
+     *
+     * @param romChecksum
+     *            la somme de contrôle de la mémoire morte de la cartouche
+     * @param snapshotSize
+     *            la taille des sauvegardes de la gameboy
+     * @param eventCycles
+     *            le cycle de chaque changement de touche
+     * @param events
+     *            chaque changement de touche, codé comme dans le fichier
+     * @param keyframeCycles
+     *            le cycle de chaque état clef
+     * @param keyframeEvents
+     *            pour chaque état clef, l'index du premier changement de
+     *            touche qui le suit
+     * @param keyframes
+     *            les états clefs compressés
+     * @param endCycle
+     *            le cycle de la fin du film
+     */
+    Movie(int romChecksum, int snapshotSize, long[] eventCycles, byte[] events,
+            long[] keyframeCycles, int[] keyframeEvents, byte[][] keyframes,
+            long endCycle) {
+        this.romChecksum = romChecksum;
+        this.snapshotSize = snapshotSize;
+        this.eventCycles = eventCycles;
+        this.events = events;
+        this.keyframeCycles = keyframeCycles;
+        this.keyframeEvents = keyframeEvents;
+        this.keyframes = keyframes;
+        this.endCycle = endCycle;
+    }
+
+    /**
+     * retourne le cycle du début du film, celui de son premier état clef
+     *
+     * @return le cycle du début
+     */
+    public long startCycle() {
+        return keyframeCycles[0];
+    }
+
+    /**
+     * retourne le cycle de la fin du film
+     *
+     * @return le cycle de la fin
+     */
+    public long endCycle() {
+        return endCycle;
+    }
+
+    /**
+     * retourne le nombre de changements de touche du film
+     *
+     * @return le nombre de changements de touche
+     */
+    public int eventCount() {
+        return events.length;
+    }
+
+    /**
+     * retourne le nombre d'états clefs du film
+     *
+     * @return le nombre d'états clefs
+     */
+    public int keyframeCount() {
+        return keyframes.length;
+    }
+
+    int romChecksum() {
+        return romChecksum;
+    }
+
+    int snapshotSize() {
+        return snapshotSize;
+    }
+
+    long eventCycle(int i) {
+        return eventCycles[i];
+    }
+
+    Joypad.Key eventKey(int i) {
+        return KEYS[events[i] >>> 1];
+    }
+
+    boolean eventPressed(int i) {
+        return (events[i] & 1) != 0;
+    }
+
+    long keyframeCycle(int i) {
+        return keyframeCycles[i];
+    }
+
+    int keyframeEvents(int i) {
+        return keyframeEvents[i];
+    }
+
+    /**
+     * retourne l'index du dernier état clef pris au plus tard au cycle
+     * donné, qui ne doit pas précéder le début du film
+     */
+    int keyframeAt(long cycle) {
+        int i = Arrays.binarySearch(keyframeCycles, cycle);
+        if (i < 0)
+            return -i - 2;
+        // plusieurs états clefs peuvent avoir le même cycle
+        while (i + 1 < keyframeCycles.length && keyframeCycles[i + 1] == cycle)
+            ++i;
+        return i;
+    }
+
+    /**
+     * décompresse l'état clef donné dans le tampon donné, prêt à être lu
+     */
+    void inflateKeyframe(int i, ByteBuffer state) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(keyframes[i]);
+            state.clear();
+            int length = inflater.inflate(state.array());
+            state.limit(length);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * écrit le film dans le flot donné, qui n'est pas fermé
+     *
+     * @param out
+     *            le flot
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(
+                new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(romChecksum);
+        data.writeInt(snapshotSize);
+
+        long cycle = 0;
+        int e = 0;
+        for (int k = 0; k <= keyframes.length; ++k) {
+            int end = k < keyframes.length ? keyframeEvents[k]
+                    : events.length;
+            for (; e < end; ++e) {
+                writeVarint(data, eventCycles[e] - cycle);
+                data.writeByte(events[e]);
+                cycle = eventCycles[e];
+            }
+            if (k < keyframes.length) {
+                writeVarint(data, keyframeCycles[k] - cycle);
+                data.writeByte(KEYFRAME);
+                writeVarint(data, keyframes[k].length);
+                data.write(keyframes[k]);
+                cycle = keyframeCycles[k];
+            }
+        }
+        writeVarint(data, endCycle - cycle);
+        data.writeByte(END);
+        data.flush();
+    }
+
+    /**
+     * lit un film écrit par write dans le flot donné, qui n'est pas fermé
+     *
+     * @param in
+     *            le flot
+     * @return le film
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie, ou si le flot ne contient
+     *             pas un film valide, par exemple s'il se termine avant la
+     *             fin d'un état clef ou si la taille d'un état clef dépasse
+     *             celle que peut avoir une sauvegarde compressée
+     */
+    public static Movie read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(
+                new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readShort() != VERSION)
+            throw new IOException();
+        int romChecksum = data.readInt();
+        int snapshotSize = data.readInt();
+        if (snapshotSize <= 0)
+            throw new IOException();
+
+        MovieBuilder builder = new MovieBuilder(romChecksum, snapshotSize);
+        long cycle = 0;
+        while (true) {
+            long delta = readVarint(data);
+            if (delta < 0 || cycle + delta < cycle)
+                throw new IOException();
+            cycle += delta;
+            int type = data.readUnsignedByte();
+            if (type == END)
+                break;
+
+            if (type == KEYFRAME) {
+                long length = readVarint(data);
+                if (length < 0 || length > maxKeyframeSize(snapshotSize))
+                    throw new IOException();
+                builder.addKeyframe(cycle, readBytes(data, (int) length));
+            } else if ((type >>> 1) < KEYS.length) {
+                if (builder.keyframeCount() == 0)
+                    throw new IOException();
+                builder.addEvent(cycle, KEYS[type >>> 1], (type & 1) != 0);
+            } else {
+                throw new IOException();
+            }
+        }
+        if (builder.keyframeCount() == 0)
+            throw new IOException();
+        return builder.build(cycle);
+    }
+
+    /**
+     * retourne la plus grande taille que peut avoir une sauvegarde de la
+     * taille donnée une fois compressée : la borne de deflateBound de zlib
+     * valable quels que soient les paramètres de compression, plus l'en-tête
+     * et la somme de contrôle
+     */
+    private static long maxKeyframeSize(int snapshotSize) {
+        long size = snapshotSize;
+        return size + ((size + 7) >> 3) + ((size + 63) >> 6) + 5 + 6;
+    }
+
+    /**
+     * lit le nombre d'octets donné, par morceaux, afin qu'une taille erronée
+     * dans un flot tronqué ne fasse pas allouer plus que ce qu'il contient
+     */
+    private static byte[] readBytes(DataInputStream in, int length)
+            throws IOException {
+        byte[] bytes = new byte[Math.min(length, READ_CHUNK)];
+        in.readFully(bytes);
+        while (bytes.length < length) {
+            int read = bytes.length;
+            bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * read));
+            in.readFully(bytes, read, bytes.length - read);
+        }
+        return bytes;
+    }
+
+    private static void writeVarint(DataOutputStream out, long value)
+            throws IOException {
+        while (value >= VARINT_MORE) {
+            out.writeByte((int) (value & VARINT_MASK) | VARINT_MORE);
+            value >>>= VARINT_BITS;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift >= Long.SIZE)
+                throw new IOException();
+            b = in.readUnsignedByte();
+            value |= (long) (b & VARINT_MASK) << shift;
+            shift += VARINT_BITS;
+        } while ((b & VARINT_MORE) != 0);
+        return value;
+    }
+}
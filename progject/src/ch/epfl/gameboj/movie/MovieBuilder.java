@@ -0,0 +1,85 @@
+package ch.epfl.gameboj.movie;
+
+import java.util.Arrays;
+
+import ch.epfl.gameboj.component.Joypad;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Accumule les changements de touche et les états clefs d'un film,
+ *         dans l'ordre chronologique, dans des tableaux agrandis au besoin.
+ */
+final class MovieBuilder {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int romChecksum;
+    private final int snapshotSize;
+
+    private long[] eventCycles = new long[INITIAL_CAPACITY];
+    private byte[] events = new byte[INITIAL_CAPACITY];
+    private int eventCount = 0;
+
+    private long[] keyframeCycles = new long[INITIAL_CAPACITY];
+    private int[] keyframeEvents = new int[INITIAL_CAPACITY];
+    private byte[][] keyframes = new byte[INITIAL_CAPACITY][];
+    private int keyframeCount = 0;
+
+    /**
+     * construit un constructeur de film pour une gameboy dont la mémoire
+     * morte de la cartouche a la somme de contrôle donnée, et dont les
+     * sauvegardes ont la taille donnée
+     */
+    MovieBuilder(int romChecksum, int snapshotSize) {
+        this.romChecksum = romChecksum;
+        this.snapshotSize = snapshotSize;
+    }
+
+    /**
+     * ajoute le changement de la touche donnée au cycle donné
+     */
+    void addEvent(long cycle, Joypad.Key key, boolean pressed) {
+        if (eventCount == events.length) {
+            eventCycles = Arrays.copyOf(eventCycles, 2 * eventCount);
+            events = Arrays.copyOf(events, 2 * eventCount);
+        }
+        eventCycles[eventCount] = cycle;
+        events[eventCount] = (byte) (key.ordinal() << 1 | (pressed ? 1 : 0));
+        ++eventCount;
+    }
+
+    /**
+     * ajoute l'état clef compressé donné, pris au cycle donné après les
+     * changements de touche déjà ajoutés
+     */
+    void addKeyframe(long cycle, byte[] keyframe) {
+        if (keyframeCount == keyframes.length) {
+            keyframeCycles = Arrays.copyOf(keyframeCycles, 2 * keyframeCount);
+            keyframeEvents = Arrays.copyOf(keyframeEvents, 2 * keyframeCount);
+            keyframes = Arrays.copyOf(keyframes, 2 * keyframeCount);
+        }
+        keyframeCycles[keyframeCount] = cycle;
+        keyframeEvents[keyframeCount] = eventCount;
+        keyframes[keyframeCount] = keyframe;
+        ++keyframeCount;
+    }
+
+    int keyframeCount() {
+        return keyframeCount;
+    }
+
+    /**
+     * retourne le film formé de ce qui a été ajouté, qui finit au cycle
+     * donné ; le constructeur peut encore être utilisé ensuite
+     */
+    Movie build(long endCycle) {
+        return new Movie(romChecksum, snapshotSize,
+                Arrays.copyOf(eventCycles, eventCount),
+                Arrays.copyOf(events, eventCount),
+                Arrays.copyOf(keyframeCycles, keyframeCount),
+                Arrays.copyOf(keyframeEvents, keyframeCount),
+                Arrays.copyOf(keyframes, keyframeCount), endCycle);
+    }
+}
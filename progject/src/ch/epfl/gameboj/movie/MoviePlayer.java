@@ -0,0 +1,117 @@
+package ch.epfl.gameboj.movie;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.Preconditions;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Rejoue un film sur une gameboy ayant la même cartouche que celle de
+ *         l'enregistrement : chaque changement de touche a lieu exactement au
+ *         cycle auquel il a été enregistré, si bien que la gameboy passe par
+ *         les mêmes états. Après la fin du film, la gameboy continue
+ *         d'évoluer sans que les touches ne changent.
+ *
+ *         Se déplacer dans le film ne coûte que la restauration de l'état
+ *         clef qui précède la destination, puis l'évolution jusqu'à elle,
+ *         au plus un intervalle entre états clefs.
+ */
+public final class MoviePlayer {
+
+    private final GameBoy gameBoy;
+    private final Movie movie;
+    private final ByteBuffer state;
+    // index du prochain changement de touche
+    private int next;
+
+    /**
+     * construit un lecteur du film donné, et remet la gameboy donnée dans
+     * l'état du début du film
+     *
+     * @param gameBoy
+     *            la gameboy, qui ne doit plus être avancée que par ce lecteur
+     * @param movie
+     *            le film
+     * @throws NullPointerException
+     *             si la gameboy ou le film est nul
+     * @throws IllegalArgumentException
+     *             si le film n'a pas été enregistré sur une gameboy ayant la
+     *             même cartouche, c'est-à-dire une mémoire morte de même
+     *             somme de contrôle et des sauvegardes de même taille
+     */
+    public MoviePlayer(GameBoy gameBoy, Movie movie) {
+        this.gameBoy = Objects.requireNonNull(gameBoy);
+        this.movie = Objects.requireNonNull(movie);
+        Preconditions.checkArgument(
+                movie.romChecksum() == gameBoy.cartridge().romChecksum()
+                        && movie.snapshotSize() == gameBoy.snapshotSize());
+        this.state = ByteBuffer.allocate(gameBoy.snapshotSize());
+
+        restore(0);
+    }
+
+    /**
+     * fait évoluer la gameboy jusqu'au cycle donné, en rejouant les
+     * changements de touche qui le précèdent ; comme lors de
+     * l'enregistrement, ceux qui ont lieu au cycle donné le sont au début de
+     * l'appel suivant
+     *
+     * @param cycle
+     *            le cycle
+     * @throws IllegalArgumentException
+     *             si le cycle est antérieur au cycle courant de la gameboy
+     */
+    public void runUntil(long cycle) {
+        Preconditions.checkArgument(gameBoy.cycles() <= cycle);
+
+        while (next < movie.eventCount() && movie.eventCycle(next) < cycle) {
+            gameBoy.runUntil(movie.eventCycle(next));
+            if (movie.eventPressed(next))
+                gameBoy.joypad().keyPressed(movie.eventKey(next));
+            else
+                gameBoy.joypad().keyReleased(movie.eventKey(next));
+            ++next;
+        }
+        gameBoy.runUntil(cycle);
+    }
+
+    /**
+     * met la gameboy dans l'état qui était le sien lorsque l'enregistreur
+     * l'a avancée jusqu'au cycle donné, en
+     * avançant depuis son état courant s'il n'est pas plus loin du cycle
+     * que le dernier état clef qui le précède, depuis cet état clef sinon
+     *
+     * @param cycle
+     *            le cycle, qui peut précéder le cycle courant
+     * @throws IllegalArgumentException
+     *             si le cycle précède le début du film
+     */
+    public void seek(long cycle) {
+        Preconditions.checkArgument(cycle >= movie.startCycle());
+
+        int keyframe = movie.keyframeAt(cycle);
+        if (gameBoy.cycles() > cycle
+                || gameBoy.cycles() < movie.keyframeCycle(keyframe))
+            restore(keyframe);
+        runUntil(cycle);
+    }
+
+    /**
+     * retourne vrai ssi la gameboy a atteint la fin du film
+     *
+     * @return vrai ssi le film est fini
+     */
+    public boolean finished() {
+        return gameBoy.cycles() >= movie.endCycle();
+    }
+
+    private void restore(int keyframe) {
+        movie.inflateKeyframe(keyframe, state);
+        gameBoy.restore(state);
+        next = movie.keyframeEvents(keyframe);
+    }
+}
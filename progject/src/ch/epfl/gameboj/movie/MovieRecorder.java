@@ -0,0 +1,137 @@
+package ch.epfl.gameboj.movie;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.Deflater;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.Preconditions;
+import ch.epfl.gameboj.component.Joypad;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Enregistre un film : fait évoluer une gameboy et appuie sur ses
+ *         touches à sa place, en notant le cycle de chaque changement, et
+ *         sauvegarde son état au début puis à chaque multiple de l'intervalle
+ *         donné depuis le début.
+ *
+ *         La gameboy ne doit être avancée, et ses touches changées, que par
+ *         cet objet : les touches changent alors toujours entre deux appels à
+ *         GameBoy.runUntil, à un cycle que MoviePlayer peut reproduire
+ *         exactement.
+ */
+public final class MovieRecorder {
+
+    private final GameBoy gameBoy;
+    private final long keyframeInterval;
+    private final MovieBuilder builder;
+    private long nextKeyframe;
+
+    private final ByteBuffer state;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] compressed;
+
+    /**
+     * commence l'enregistrement d'un film de la gameboy donnée, dans son
+     * état courant
+     *
+     * @param gameBoy
+     *            la gameboy
+     * @param keyframeInterval
+     *            l'intervalle entre deux états clefs, en cycles
+     * @throws NullPointerException
+     *             si la gameboy est nulle
+     * @throws IllegalArgumentException
+     *             si l'intervalle n'est pas strictement positif
+     */
+    public MovieRecorder(GameBoy gameBoy, long keyframeInterval) {
+        Preconditions.checkArgument(keyframeInterval > 0);
+
+        this.gameBoy = Objects.requireNonNull(gameBoy);
+        this.keyframeInterval = keyframeInterval;
+        this.state = ByteBuffer.allocate(gameBoy.snapshotSize());
+        this.builder = new MovieBuilder(gameBoy.cartridge().romChecksum(),
+                state.capacity());
+        this.compressed = new byte[state.capacity()];
+
+        keyframe();
+        nextKeyframe = gameBoy.cycles() + keyframeInterval;
+    }
+
+    /**
+     * appuie sur la touche donnée, au cycle courant de la gameboy
+     *
+     * @param key
+     *            la touche
+     * @throws NullPointerException
+     *             si la touche est nulle
+     */
+    public void keyPressed(Joypad.Key key) {
+        builder.addEvent(gameBoy.cycles(), Objects.requireNonNull(key), true);
+        gameBoy.joypad().keyPressed(key);
+    }
+
+    /**
+     * relâche la touche donnée, au cycle courant de la gameboy
+     *
+     * @param key
+     *            la touche
+     * @throws NullPointerException
+     *             si la touche est nulle
+     */
+    public void keyReleased(Joypad.Key key) {
+        builder.addEvent(gameBoy.cycles(), Objects.requireNonNull(key), false);
+        gameBoy.joypad().keyReleased(key);
+    }
+
+    /**
+     * fait évoluer la gameboy jusqu'au cycle donné, en sauvegardant son état
+     * à chaque état clef rencontré
+     *
+     * @param cycle
+     *            le cycle
+     * @throws IllegalArgumentException
+     *             si le cycle est antérieur au cycle courant de la gameboy
+     */
+    public void runUntil(long cycle) {
+        Preconditions.checkArgument(gameBoy.cycles() <= cycle);
+
+        while (nextKeyframe <= cycle) {
+            gameBoy.runUntil(nextKeyframe);
+            keyframe();
+            nextKeyframe += keyframeInterval;
+        }
+        gameBoy.runUntil(cycle);
+    }
+
+    /**
+     * retourne le film enregistré jusqu'au cycle courant de la gameboy ;
+     * l'enregistrement peut continuer ensuite
+     *
+     * @return le film
+     */
+    public Movie movie() {
+        return builder.build(gameBoy.cycles());
+    }
+
+    private void keyframe() {
+        state.clear();
+        gameBoy.snapshot(state);
+
+        deflater.reset();
+        deflater.setInput(state.array(), 0, state.position());
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length)
+                compressed = Arrays.copyOf(compressed, 2 * length);
+            length += deflater.deflate(compressed, length,
+                    compressed.length - length);
+        }
+        builder.addKeyframe(gameBoy.cycles(),
+                Arrays.copyOf(compressed, length));
+    }
+}
@@ -0,0 +1,114 @@
+package ch.epfl.gameboj;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.component.Joypad.Key;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.memory.Rom;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Vérifie qu'une copie obtenue par fork évolue exactement comme la
+ *         gameboy copiée, et que ni l'une ni l'autre ne voit les écritures de
+ *         l'autre dans les mémoires qu'elles partagent, y compris lorsqu'elles
+ *         évoluent sur deux fils en même temps.
+ */
+class GameBoyForkTest {
+
+    private static final long START = 200 * GameBoy.CYCLES_PER_FRAME;
+    private static final long END = START + 30 * GameBoy.CYCLES_PER_FRAME;
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static GameBoy gameBoy(int seed) {
+        GameBoy gb = new GameBoy(TestCartridges.counterCartridge(seed));
+        gb.runUntil(START);
+        return gb;
+    }
+
+    @Test
+    void forkHasTheSameStateAndEvolvesTheSame() {
+        GameBoy gb = gameBoy(1);
+        GameBoy fork = gb.fork();
+        assertArrayEquals(bytes(gb.snapshot()), bytes(fork.snapshot()));
+
+        gb.runUntil(END);
+        fork.runUntil(END);
+        assertArrayEquals(bytes(gb.snapshot()), bytes(fork.snapshot()));
+    }
+
+    @Test
+    void forkAndOriginalDoNotSeeEachOtherChanges() {
+        GameBoy gb = gameBoy(2);
+        byte[] atFork = bytes(gb.snapshot());
+        GameBoy fork = gb.fork();
+
+        fork.joypad().keyPressed(Key.A);
+        fork.bus().write(0xC123, 0x42);
+        fork.runUntil(END);
+        gb.runUntil(END);
+
+        GameBoy reference = new GameBoy(TestCartridges.counterCartridge(2));
+        reference.restore(ByteBuffer.wrap(atFork));
+        reference.runUntil(END);
+        assertArrayEquals(bytes(reference.snapshot()), bytes(gb.snapshot()));
+        assertFalse(Arrays.equals(bytes(gb.snapshot()),
+                bytes(fork.snapshot())));
+    }
+
+    @Test
+    void forksEvolveTheSameOnAnotherThread() throws InterruptedException {
+        GameBoy gb = gameBoy(3);
+        GameBoy sequential = gb.fork();
+        sequential.runUntil(END);
+        byte[] expected = bytes(sequential.snapshot());
+
+        GameBoy[] forks = { gb.fork(), gb.fork(), gb.fork() };
+        Thread[] threads = new Thread[forks.length];
+        for (int i = 0; i < forks.length; ++i) {
+            GameBoy fork = forks[i];
+            threads[i] = new Thread(() -> fork.runUntil(END));
+            threads[i].start();
+        }
+        gb.runUntil(END);
+        for (Thread t : threads)
+            t.join();
+
+        assertArrayEquals(expected, bytes(gb.snapshot()));
+        for (GameBoy fork : forks)
+            assertArrayEquals(expected, bytes(fork.snapshot()));
+    }
+
+    @Test
+    void cartridgeRamIsCopiedOnWrite() {
+        byte[] rom = new byte[2 * 0x4000];
+        rom[0x147] = 3; // MBC1 avec mémoire vive
+        rom[0x149] = 2; // 8 Kio
+        GameBoy gb = new GameBoy(Cartridge.ofRom(new Rom(rom)));
+        gb.bus().write(0x0000, 0x0A); // activation de la mémoire vive
+        gb.bus().write(0xA010, 0x11);
+
+        GameBoy fork = gb.fork();
+        assertEquals(0x11, fork.bus().read(0xA010));
+        fork.bus().write(0xA010, 0x22);
+        gb.bus().write(0xA011, 0x33);
+
+        assertEquals(0x11, gb.bus().read(0xA010));
+        assertEquals(0x22, fork.bus().read(0xA010));
+        assertEquals(0x33, gb.bus().read(0xA011));
+        assertEquals(0x00, fork.bus().read(0xA011));
+    }
+}
@@ -0,0 +1,121 @@
+package ch.epfl.gameboj;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.memory.Rom;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Vérifie qu'une sauvegarde restaurée redonne le même état, et qu'une
+ *         sauvegarde invalide est refusée sans que la gameboy soit modifiée.
+ */
+class GameBoySnapshotTest {
+
+    private static final long START = 200 * GameBoy.CYCLES_PER_FRAME;
+    private static final int RAM_SIZE = 0x2000;
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * retourne une gameboy dont la cartouche a un contrôleur MBC1 et 8 Kio de
+     * mémoire vive, dont l'état se trouve donc à la fin des sauvegardes ; sa
+     * mémoire morte ne passant pas la vérification de la mémoire de
+     * démarrage, elle n'est modifiée que par le bus
+     */
+    private static GameBoy mbc1GameBoy() {
+        byte[] rom = new byte[2 * 0x4000];
+        rom[0x147] = 3; // MBC1 avec mémoire vive
+        rom[0x149] = 2; // 8 Kio
+        GameBoy gb = new GameBoy(Cartridge.ofRom(new Rom(rom)));
+        gb.bus().write(0x0000, 0x0A); // activation de la mémoire vive
+        gb.bus().write(0xA010, 0x11);
+        return gb;
+    }
+
+    @Test
+    void restoredSnapshotGivesTheSameState() {
+        GameBoy gb = new GameBoy(TestCartridges.counterCartridge(1));
+        gb.runUntil(START);
+        byte[] state = bytes(gb.snapshot());
+
+        GameBoy other = new GameBoy(TestCartridges.counterCartridge(1));
+        other.restore(ByteBuffer.wrap(state));
+        assertEquals(START, other.cycles());
+        assertArrayEquals(state, bytes(other.snapshot()));
+
+        GameBoy mbc1 = mbc1GameBoy();
+        byte[] mbc1State = bytes(mbc1.snapshot());
+        GameBoy mbc1Other = mbc1GameBoy();
+        mbc1Other.bus().write(0xA010, 0x22);
+        mbc1Other.restore(ByteBuffer.wrap(mbc1State));
+        assertArrayEquals(mbc1State, bytes(mbc1Other.snapshot()));
+    }
+
+    @Test
+    void snapshotEndingWithFFIsRejectedWithoutChange() {
+        GameBoy gb = mbc1GameBoy();
+        byte[] state = bytes(gb.snapshot());
+        gb.bus().write(0xC000, 0x33);
+        gb.bus().write(0x6000, 1); // mode 1
+        byte[] before = bytes(gb.snapshot());
+
+        // les octets de la mémoire vive sont tous valides, pas l'état du MBC1
+        for (int tail : new int[] { RAM_SIZE + 1, RAM_SIZE + 4,
+                state.length / 2 }) {
+            byte[] bad = state.clone();
+            Arrays.fill(bad, bad.length - tail, bad.length, (byte) 0xFF);
+            assertThrows(IllegalArgumentException.class,
+                    () -> gb.restore(ByteBuffer.wrap(bad)));
+            assertArrayEquals(before, bytes(gb.snapshot()));
+        }
+    }
+
+    @Test
+    void invalidMbc1StateIsRejectedWithoutChange() {
+        GameBoy gb = mbc1GameBoy();
+        byte[] state = bytes(gb.snapshot());
+        gb.bus().write(0xC000, 0x33);
+        gb.bus().write(0x6000, 1); // mode 1
+        byte[] before = bytes(gb.snapshot());
+        // activation, mode, 5 bits de poids faible, 2 bits, mémoire vive
+        int mbc1 = state.length - RAM_SIZE - 4;
+
+        byte[] badMode = state.clone();
+        badMode[mbc1 + 1] = 2;
+        assertThrows(IllegalArgumentException.class,
+                () -> gb.restore(ByteBuffer.wrap(badMode)));
+        byte[] badBank = state.clone();
+        badBank[mbc1 + 2] = 0;
+        assertThrows(IllegalArgumentException.class,
+                () -> gb.restore(ByteBuffer.wrap(badBank)));
+        assertArrayEquals(before, bytes(gb.snapshot()));
+
+        byte[] good = state.clone();
+        good[mbc1 + 1] = 1;
+        gb.restore(ByteBuffer.wrap(good));
+        assertEquals(0x11, gb.bus().read(0xA010));
+    }
+
+    @Test
+    void truncatedSnapshotIsRejected() {
+        GameBoy gb = mbc1GameBoy();
+        byte[] state = bytes(gb.snapshot());
+        byte[] truncated = Arrays.copyOf(state, state.length - 1);
+        assertThrows(IllegalArgumentException.class,
+                () -> gb.restore(ByteBuffer.wrap(truncated)));
+    }
+}
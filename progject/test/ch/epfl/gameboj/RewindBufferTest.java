@@ -0,0 +1,145 @@
+package ch.epfl.gameboj;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Vérifie que revenir à un état du tampon, état clef ou différence,
+ *         redonne exactement l'état qu'avait la gameboy lorsqu'il a été
+ *         ajouté, y compris lorsque son état clef a été oublié.
+ */
+class RewindBufferTest {
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * fait avancer la gameboy d'une image avant chaque ajout, et retourne les
+     * états ajoutés, du plus ancien au plus récent
+     */
+    private static List<byte[]> record(GameBoy gb, RewindBuffer buffer,
+            int count) {
+        List<byte[]> states = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            gb.runUntil(gb.cycles() + GameBoy.CYCLES_PER_FRAME);
+            buffer.record();
+            states.add(bytes(gb.snapshot()));
+        }
+        return states;
+    }
+
+    @Test
+    void constructorFailsForInvalidCapacityOrInterval() {
+        GameBoy gb = new GameBoy(TestCartridges.counterCartridge(0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RewindBuffer(gb, 0, 4));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RewindBuffer(gb, 4, 0));
+        assertThrows(NullPointerException.class,
+                () -> new RewindBuffer(null, 4, 4));
+    }
+
+    @Test
+    void rewindGivesBackEveryRecordedState() {
+        GameBoy gb = new GameBoy(TestCartridges.counterCartridge(1));
+        gb.runUntil(200 * GameBoy.CYCLES_PER_FRAME);
+        List<byte[]> states = record(gb, new RewindBuffer(gb, 32, 5), 23);
+
+        // revenir à un état oublie les plus récents : un tampon par âge,
+        // rempli en restaurant les états
+        for (int age = 0; age < states.size(); ++age) {
+            RewindBuffer buffer = new RewindBuffer(gb, 32, 5);
+            for (byte[] state : states) {
+                gb.restore(ByteBuffer.wrap(state));
+                buffer.record();
+            }
+            long cycles = buffer.cyclesAt(age);
+            buffer.rewind(age);
+            assertArrayEquals(states.get(states.size() - 1 - age),
+                    bytes(gb.snapshot()), "âge " + age);
+            assertEquals(cycles, gb.cycles());
+            assertEquals(states.size() - age, buffer.size());
+        }
+    }
+
+    @Test
+    void rewindForgetsNewerStates() {
+        GameBoy gb = new GameBoy(TestCartridges.counterCartridge(2));
+        gb.runUntil(200 * GameBoy.CYCLES_PER_FRAME);
+        RewindBuffer buffer = new RewindBuffer(gb, 16, 4);
+        List<byte[]> states = record(gb, buffer, 10);
+
+        buffer.rewind(3);
+        assertEquals(7, buffer.size());
+        buffer.rewind(1);
+        assertEquals(6, buffer.size());
+        assertArrayEquals(states.get(5), bytes(gb.snapshot()));
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.rewind(6));
+    }
+
+    @Test
+    void oldestStatesAreForgottenButTheirKeysStayUsable() {
+        GameBoy gb = new GameBoy(TestCartridges.counterCartridge(3));
+        gb.runUntil(200 * GameBoy.CYCLES_PER_FRAME);
+        RewindBuffer buffer = new RewindBuffer(gb, 5, 4);
+        List<byte[]> states = record(gb, buffer, 14);
+        long[] cycles = new long[5];
+        for (int age = 0; age < 5; ++age)
+            cycles[age] = buffer.cyclesAt(age);
+
+        assertEquals(5, buffer.size());
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> buffer.cyclesAt(5));
+        // l'état 9 est une différence avec l'état clef 8, déjà oublié
+        buffer.rewind(4);
+        assertArrayEquals(states.get(9), bytes(gb.snapshot()));
+        assertEquals(cycles[4], gb.cycles());
+    }
+
+    @Test
+    void differencesAreSmallerThanKeyStates() {
+        GameBoy gb = new GameBoy(TestCartridges.counterCartridge(4));
+        gb.runUntil(200 * GameBoy.CYCLES_PER_FRAME);
+        RewindBuffer keysOnly = new RewindBuffer(gb, 8, 1);
+        RewindBuffer withDeltas = new RewindBuffer(gb, 8, 8);
+        for (int i = 0; i < 8; ++i) {
+            gb.runUntil(gb.cycles() + 1000);
+            keysOnly.record();
+            withDeltas.record();
+        }
+        assertEquals(8L * gb.snapshotSize(), keysOnly.storedBytes());
+        assertTrue(withDeltas.storedBytes() < keysOnly.storedBytes());
+    }
+
+    @Test
+    void runningAgainAfterRewindGivesTheSameStates() {
+        GameBoy gb = new GameBoy(TestCartridges.counterCartridge(5));
+        gb.runUntil(200 * GameBoy.CYCLES_PER_FRAME);
+        RewindBuffer buffer = new RewindBuffer(gb, 16, 4);
+        List<byte[]> states = record(gb, buffer, 10);
+        assertFalse(Arrays.equals(states.get(0), states.get(9)));
+
+        buffer.rewind(9);
+        for (int i = 1; i < 10; ++i) {
+            gb.runUntil(gb.cycles() + GameBoy.CYCLES_PER_FRAME);
+            assertArrayEquals(states.get(i), bytes(gb.snapshot()),
+                    "image " + i);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ch.epfl.gameboj;
+
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.memory.BootRom;
+import ch.epfl.gameboj.component.memory.Rom;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Cartouches construites pour les tests, dont l'en-tête est accepté
+ *         par la mémoire morte de démarrage.
+ */
+public final class TestCartridges {
+
+    private static final int LOGO_START = 0x104;
+    private static final int LOGO_SIZE = 48;
+    private static final int BOOT_ROM_LOGO = 0xA8;
+    private static final int CHECKSUM_START = 0x134;
+    private static final int CHECKSUM = 0x14D;
+    private static final int PROGRAM = 0x150;
+
+    private TestCartridges() {
+    }
+
+    /**
+     * retourne la mémoire morte d'une cartouche sans contrôleur, dont le
+     * programme incrémente sans fin chaque octet de la mémoire de travail
+     * en partant de la valeur donnée, en lui ajoutant l'état de la manette,
+     * et lit le minuteur
+     *
+     * @param seed
+     *            la valeur écrite en mémoire de travail avant la boucle
+     * @return la mémoire morte
+     */
+    public static Rom counterRom(int seed) {
+        int[] program = {
+                0xAF, 0xE0, 0x00, // XOR A ; LDH (P1), A
+                0x3E, 0x05, 0xE0, 0x07, // LD A, 05 ; LDH (TAC), A
+                0x3E, seed, 0xEA, 0x00, 0xC0, // LD A, seed ; LD (C000), A
+                0x21, 0x00, 0xC0, // LD HL, C000
+                0xF0, 0x00, // boucle : LDH A, (P1)
+                0x86, // ADD A, (HL)
+                0x3C, // INC A
+                0x22, // LD (HL+), A
+                0xF0, 0x05, // LDH A, (TIMA)
+                0x7C, // LD A, H
+                0xFE, 0xE0, // CP E0
+                0x20, 0xF4, // JR NZ, boucle
+                0x26, 0xC0, // LD H, C0
+                0x18, 0xF0 }; // JR boucle
+        byte[] rom = new byte[2 * 0x4000];
+        for (int i = 0; i < LOGO_SIZE; ++i)
+            rom[LOGO_START + i] = BootRom.DATA[BOOT_ROM_LOGO + i];
+        rom[0x100] = (byte) 0xC3; // JP 0150
+        rom[0x101] = (byte) (PROGRAM & 0xFF);
+        rom[0x102] = (byte) (PROGRAM >>> 8);
+        for (int i = 0; i < program.length; ++i)
+            rom[PROGRAM + i] = (byte) program[i];
+
+        int checksum = 0;
+        for (int i = CHECKSUM_START; i < CHECKSUM; ++i)
+            checksum = checksum - rom[i] - 1;
+        rom[CHECKSUM] = (byte) checksum;
+        return new Rom(rom);
+    }
+
+    /**
+     * retourne une cartouche dont la mémoire morte est counterRom(seed)
+     *
+     * @param seed
+     *            la valeur écrite en mémoire de travail avant la boucle
+     * @return la cartouche
+     */
+    public static Cartridge counterCartridge(int seed) {
+        return Cartridge.ofRom(counterRom(seed));
+    }
+}
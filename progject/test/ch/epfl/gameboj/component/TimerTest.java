@@ -0,0 +1,89 @@
+package ch.epfl.gameboj.component;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.memory.Rom;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Vérifie que le minuteur, mis à jour paresseusement, évolue comme
+ *         s'il était mis à jour à chaque cycle, et que son état sauvegardé ne
+ *         dépend pas des accès qui ont précédé la sauvegarde.
+ */
+class TimerTest {
+
+    private static final long START = 1_000;
+    private static final long END = 60_000;
+
+    private static GameBoy gameBoyWithTimer(int tac) {
+        GameBoy gb = new GameBoy(
+                Cartridge.ofRom(new Rom(new byte[2 * 0x4000])));
+        gb.runUntil(START);
+        gb.bus().write(AddressMap.REG_TMA, 0xF0);
+        gb.bus().write(AddressMap.REG_TAC, tac);
+        return gb;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void savedStateDoesNotDependOnEarlierReads() {
+        for (int tac = 4; tac < 8; ++tac) {
+            GameBoy gb = gameBoyWithTimer(tac);
+            gb.runUntil(END);
+            byte[] before = bytes(gb.snapshot());
+            gb.bus().read(AddressMap.REG_TIMA);
+            assertArrayEquals(before, bytes(gb.snapshot()));
+        }
+    }
+
+    @Test
+    void lazyTimerMatchesTimerReadAtEveryCycle() {
+        for (int tac = 4; tac < 8; ++tac) {
+            GameBoy lazy = gameBoyWithTimer(tac);
+            GameBoy eager = gameBoyWithTimer(tac);
+            for (long c = START + 1; c <= END; ++c) {
+                lazy.runUntil(c);
+                eager.runUntil(c);
+                // lire le minuteur le met à jour jusqu'au cycle en cours
+                eager.bus().read(AddressMap.REG_DIV);
+                eager.bus().read(AddressMap.REG_TIMA);
+                if (c % 997 == 0)
+                    assertEquals(eager.bus().read(AddressMap.REG_IF),
+                            lazy.bus().read(AddressMap.REG_IF),
+                            "IF au cycle " + c);
+            }
+            assertArrayEquals(bytes(eager.snapshot()), bytes(lazy.snapshot()));
+        }
+    }
+
+    @Test
+    void restoredTimerEvolvesLikeTheOriginal() {
+        for (int tac = 4; tac < 8; ++tac) {
+            GameBoy original = gameBoyWithTimer(tac);
+            original.runUntil(END / 2);
+            GameBoy restored = new GameBoy(
+                    Cartridge.ofRom(new Rom(new byte[2 * 0x4000])));
+            restored.restore(original.snapshot());
+
+            original.runUntil(END);
+            restored.runUntil(END);
+            assertArrayEquals(bytes(original.snapshot()),
+                    bytes(restored.snapshot()));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package ch.epfl.gameboj.component.cpu;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.component.cpu.Alu.RotDir;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Compare chaque case des tables d'AluTables, pour toutes les
+ *         combinaisons d'opérandes, de retenue et de fanions, au résultat de
+ *         l'Alu.
+ */
+class AluTablesTest {
+
+    private static final boolean[] BOOLEANS = { false, true };
+
+    @Test
+    void addTableMatchesAlu() {
+        for (boolean c : BOOLEANS)
+            for (int l = 0; l < 256; ++l)
+                for (int r = 0; r < 256; ++r)
+                    assertEquals(Alu.add(l, r, c), AluTables.Tables.ADD[AluTables
+                            .binaryIndex(l, r, c)], l + " + " + r + " + " + c);
+    }
+
+    @Test
+    void subTableMatchesAlu() {
+        for (boolean b : BOOLEANS)
+            for (int l = 0; l < 256; ++l)
+                for (int r = 0; r < 256; ++r)
+                    assertEquals(Alu.sub(l, r, b), AluTables.Tables.SUB[AluTables
+                            .binaryIndex(l, r, b)], l + " - " + r + " - " + b);
+    }
+
+    @Test
+    void logicTablesMatchAlu() {
+        for (int l = 0; l < 256; ++l) {
+            for (int r = 0; r < 256; ++r) {
+                int i = AluTables.pairIndex(l, r);
+                assertEquals(Alu.and(l, r), AluTables.Tables.AND[i],
+                        l + " & " + r);
+                assertEquals(Alu.or(l, r), AluTables.Tables.OR[i],
+                        l + " | " + r);
+                assertEquals(Alu.xor(l, r), AluTables.Tables.XOR[i],
+                        l + " ^ " + r);
+            }
+        }
+    }
+
+    @Test
+    void unaryTablesMatchAlu() {
+        for (int v = 0; v < 256; ++v) {
+            assertEquals(Alu.shiftLeft(v), AluTables.Tables.SHIFT_LEFT[v]);
+            assertEquals(Alu.shiftRightA(v), AluTables.Tables.SHIFT_RIGHT_A[v]);
+            assertEquals(Alu.shiftRightL(v), AluTables.Tables.SHIFT_RIGHT_L[v]);
+            assertEquals(Alu.swap(v), AluTables.Tables.SWAP[v]);
+            assertEquals(Alu.rotate(RotDir.LEFT, v),
+                    AluTables.Tables.ROTATE_LEFT[v]);
+            assertEquals(Alu.rotate(RotDir.RIGHT, v),
+                    AluTables.Tables.ROTATE_RIGHT[v]);
+        }
+    }
+
+    @Test
+    void rotateThroughCarryTablesMatchAlu() {
+        for (boolean c : BOOLEANS) {
+            for (int v = 0; v < 256; ++v) {
+                int i = AluTables.carryIndex(v, c);
+                assertEquals(Alu.rotate(RotDir.LEFT, v, c),
+                        AluTables.Tables.ROTATE_LEFT_C[i]);
+                assertEquals(Alu.rotate(RotDir.RIGHT, v, c),
+                        AluTables.Tables.ROTATE_RIGHT_C[i]);
+            }
+        }
+    }
+
+    @Test
+    void bcdAdjustTableMatchesAlu() {
+        for (boolean n : BOOLEANS)
+            for (boolean h : BOOLEANS)
+                for (boolean c : BOOLEANS)
+                    for (int v = 0; v < 256; ++v)
+                        assertEquals(Alu.bcdAdjust(v, n, h, c),
+                                AluTables.Tables.BCD_ADJUST[AluTables
+                                        .bcdIndex(v, n, h, c)],
+                                v + " " + n + " " + h + " " + c);
+    }
+
+    @Test
+    void testBitTableMatchesAlu() {
+        for (int b = 0; b < 8; ++b)
+            for (int v = 0; v < 256; ++v)
+                assertEquals(Alu.testBit(v, b),
+                        AluTables.Tables.TEST_BIT[AluTables.bitIndex(v, b)]);
+    }
+
+    @Test
+    void lookupsMatchAluWhateverTheSetting() {
+        for (boolean c : BOOLEANS) {
+            for (int l = 0; l < 256; ++l) {
+                for (int r = 0; r < 256; ++r) {
+                    assertEquals(Alu.add(l, r, c), AluTables.add(l, r, c));
+                    assertEquals(Alu.sub(l, r, c), AluTables.sub(l, r, c));
+                    assertEquals(Alu.and(l, r), AluTables.and(l, r));
+                    assertEquals(Alu.or(l, r), AluTables.or(l, r));
+                    assertEquals(Alu.xor(l, r), AluTables.xor(l, r));
+                }
+                assertEquals(Alu.rotate(RotDir.LEFT, l, c),
+                        AluTables.rotate(RotDir.LEFT, l, c));
+                assertEquals(Alu.rotate(RotDir.RIGHT, l, c),
+                        AluTables.rotate(RotDir.RIGHT, l, c));
+                assertEquals(Alu.bcdAdjust(l, c, !c, c),
+                        AluTables.bcdAdjust(l, c, !c, c));
+            }
+        }
+        for (int v = 0; v < 256; ++v) {
+            assertEquals(Alu.shiftLeft(v), AluTables.shiftLeft(v));
+            assertEquals(Alu.shiftRightA(v), AluTables.shiftRightA(v));
+            assertEquals(Alu.shiftRightL(v), AluTables.shiftRightL(v));
+            assertEquals(Alu.swap(v), AluTables.swap(v));
+            assertEquals(Alu.rotate(RotDir.LEFT, v),
+                    AluTables.rotate(RotDir.LEFT, v));
+            assertEquals(Alu.rotate(RotDir.RIGHT, v),
+                    AluTables.rotate(RotDir.RIGHT, v));
+            for (int b = 0; b < 8; ++b)
+                assertEquals(Alu.testBit(v, b), AluTables.testBit(v, b));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package ch.epfl.gameboj.component.cpu;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.component.cartridge.Cartridge;
+import ch.epfl.gameboj.component.memory.Ram;
+import ch.epfl.gameboj.component.memory.RamController;
+import ch.epfl.gameboj.component.memory.Rom;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Vérifie que les blocs gardés par le processeur sont oubliés lorsque
+ *         le code qu'ils contiennent est écrit, et qu'ils sont distingués par
+ *         banque : chaque programme doit donner les mêmes registres avec et
+ *         sans blocs.
+ */
+class BlockCacheTest {
+
+    private static final int BANK_SIZE = 0x4000;
+    private static final int CYCLES = 5000;
+
+    private static final int B = 4, C = 5, D = 6;
+
+    /**
+     * construit une cartouche MBC1 de quatre banques, dont le code de la
+     * banque 0 est le programme donné et celui de la banque i, à partir de
+     * l'adresse 4000, est banks[i - 1]
+     */
+    private static Cartridge cartridge(int[] program, int[]... banks) {
+        byte[] rom = new byte[4 * BANK_SIZE];
+        for (int i = 0; i < program.length; ++i)
+            rom[i] = (byte) program[i];
+        for (int b = 0; b < banks.length; ++b)
+            for (int i = 0; i < banks[b].length; ++i)
+                rom[(b + 1) * BANK_SIZE + i] = (byte) banks[b][i];
+        // MBC1 sans mémoire vive
+        rom[0x147] = 1;
+        rom[0x149] = 0;
+        return Cartridge.ofRom(new Rom(rom));
+    }
+
+    /**
+     * exécute le programme de la cartouche donnée, sans mémoire morte de
+     * démarrage, et retourne les registres du processeur
+     */
+    private static int[] run(Cartridge cartridge, boolean keepBlocks) {
+        Bus bus = new Bus();
+        Cpu cpu = new Cpu(cartridge, keepBlocks);
+        cartridge.attachTo(bus);
+        Ram workRam = new Ram(AddressMap.WORK_RAM_SIZE);
+        new RamController(workRam, AddressMap.WORK_RAM_START).attachTo(bus);
+        new RamController(workRam, AddressMap.ECHO_RAM_START,
+                AddressMap.ECHO_RAM_END).attachTo(bus);
+        cpu.attachTo(bus);
+        for (long c = 0; c < CYCLES; ++c)
+            cpu.cycle(c);
+        return cpu._testGetPcSpAFBCDEHL();
+    }
+
+    private static int[] runBothWays(Cartridge withBlocks,
+            Cartridge withoutBlocks) {
+        int[] expected = run(withoutBlocks, false);
+        int[] actual = run(withBlocks, true);
+        assertArrayEquals(expected, actual);
+        return actual;
+    }
+
+    @Test
+    void blocksAreKeptPerRomBank() {
+        int[] program = {
+                0x31, 0xFE, 0xDF, // LD SP, DFFE
+                0x3E, 0x01, 0xEA, 0x00, 0x20, // banque 1
+                0xCD, 0x00, 0x40, // CALL 4000
+                0x3E, 0x02, 0xEA, 0x00, 0x20, // banque 2
+                0xCD, 0x00, 0x40, // CALL 4000
+                0x3E, 0x01, 0xEA, 0x00, 0x20, // banque 1
+                0xCD, 0x00, 0x40, // CALL 4000
+                0x76 }; // HALT
+        int[] bank1 = { 0x0C, 0xC9 }; // INC C, RET
+        int[] bank2 = { 0x14, 0xC9 }; // INC D, RET
+
+        int[] regs = runBothWays(cartridge(program, bank1, bank2),
+                cartridge(program, bank1, bank2));
+        assertEquals(2, regs[C]);
+        assertEquals(1, regs[D]);
+    }
+
+    @Test
+    void bankSwitchInsideABlockIsSeenAtOnce() {
+        int[] program = {
+                0x31, 0xFE, 0xDF, // LD SP, DFFE
+                0xCD, 0x00, 0x40, // CALL 4000
+                0x76 }; // HALT
+        // change de banque au milieu du bloc, la suite est lue en banque 2
+        int[] bank1 = { 0x3E, 0x02, 0xEA, 0x00, 0x20, 0x0C, 0xC9 };
+        int[] bank2 = { 0x00, 0x00, 0x00, 0x00, 0x00, 0x14, 0xC9 };
+
+        int[] regs = runBothWays(cartridge(program, bank1, bank2),
+                cartridge(program, bank1, bank2));
+        assertEquals(0, regs[C]);
+        assertEquals(1, regs[D]);
+    }
+
+    @Test
+    void blocksInWorkRamAreForgottenWhenWritten() {
+        int[] program = {
+                0x31, 0xFE, 0xDF, // LD SP, DFFE
+                0x21, 0x00, 0xC0, // LD HL, C000
+                0x36, 0x04, 0x23, 0x36, 0xC9, // INC B, RET en C000
+                0xCD, 0x00, 0xC0, // CALL C000
+                0xCD, 0x00, 0xC0, // CALL C000
+                0x3E, 0x05, 0xEA, 0x00, 0xC0, // DEC B en C000
+                0xCD, 0x00, 0xC0, // CALL C000
+                0x3E, 0x0C, 0xEA, 0x00, 0xE0, // INC C, écrit via l'écho
+                0xCD, 0x00, 0xC0, // CALL C000
+                0x76 }; // HALT
+
+        int[] regs = runBothWays(cartridge(program), cartridge(program));
+        assertEquals(1, regs[B]);
+        assertEquals(1, regs[C]);
+    }
+
+    @Test
+    void codeWrittenByItsOwnBlockIsSeenAtOnce() {
+        // LD A, 0C ; LD (C015), A ; INC B ; RET, copié en C010
+        int[] routine = { 0x3E, 0x0C, 0xEA, 0x15, 0xC0, 0x04, 0xC9 };
+        int[] program = new int[3 + 3 + 3 * routine.length + 3 + 1];
+        int i = 0;
+        program[i++] = 0x31; // LD SP, DFFE
+        program[i++] = 0xFE;
+        program[i++] = 0xDF;
+        program[i++] = 0x21; // LD HL, C010
+        program[i++] = 0x10;
+        program[i++] = 0xC0;
+        for (int b : routine) {
+            program[i++] = 0x36; // LD (HL), b
+            program[i++] = b;
+            program[i++] = 0x23; // INC HL
+        }
+        program[i++] = 0xCD; // CALL C010
+        program[i++] = 0x10;
+        program[i++] = 0xC0;
+        program[i++] = 0x76; // HALT
+
+        int[] regs = runBothWays(cartridge(program), cartridge(program));
+        assertEquals(0, regs[B]);
+        assertEquals(1, regs[C]);
+    }
+}
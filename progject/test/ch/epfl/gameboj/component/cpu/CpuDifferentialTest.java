@@ -0,0 +1,197 @@
+package ch.epfl.gameboj.component.cpu;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.Bus;
+import ch.epfl.gameboj.component.Clocked;
+import ch.epfl.gameboj.component.Component;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Exécute chaque instruction, directe ou préfixée, sur le processeur
+ *         actuel et sur le processeur de référence, à partir des mêmes
+ *         registres, fanions, registres d'interruption et mémoire tirés au
+ *         hasard, et vérifie qu'à chaque cycle les registres, fanions,
+ *         registres d'interruption et prochain cycle sont les mêmes, et que
+ *         les accès au bus sont les mêmes, aux mêmes cycles. Le processeur
+ *         actuel ne garde pas de blocs, dont le décodage lit le bus en avance
+ *         (voir BlockCacheTest).
+ */
+class CpuDifferentialTest {
+
+    private static final int STATES_PER_OPCODE = 12;
+    // assez pour le préambule, l'instruction et quelques instructions
+    // aléatoires qui la suivent
+    private static final int CYCLES = 160;
+    private static final int AF_ADDRESS = 0xD100;
+
+    /**
+     * mémoire qui occupe tout l'espace d'adressage laissé libre par le
+     * processeur, et note chaque accès : cycle, écriture ou non, adresse et
+     * donnée écrite
+     */
+    private static final class RecordingMemory implements Component {
+        private final int[] data;
+        private final List<Long> trace = new ArrayList<>();
+        private long cycle = -1;
+
+        RecordingMemory(int[] data) {
+            this.data = data.clone();
+        }
+
+        @Override
+        public int read(int address) {
+            if (cycle >= 0)
+                trace.add(access(false, address, 0));
+            return data[address];
+        }
+
+        @Override
+        public void write(int address, int value) {
+            trace.add(access(true, address, value));
+            data[address] = value;
+        }
+
+        private long access(boolean write, int address, int value) {
+            return cycle << 25 | (write ? 1 << 24 : 0) | address << 8 | value;
+        }
+    }
+
+    private static final Component MODEL_CPU = new ReferenceCpu();
+    private static final Component MODEL_MEMORY = new RecordingMemory(
+            new int[0x10000]);
+    private static final Bus MODEL_BUS = new Bus();
+
+    static {
+        MODEL_CPU.attachTo(MODEL_BUS);
+        MODEL_MEMORY.attachTo(MODEL_BUS);
+    }
+
+    /**
+     * un processeur attaché à sa propre mémoire
+     */
+    private static final class Machine {
+        private final Component cpu;
+        private final Supplier<int[]> registers;
+        private final RecordingMemory memory;
+        private Throwable failure = null;
+
+        <C extends Component & Clocked> Machine(C cpu,
+                Supplier<int[]> registers, int[] memory) {
+            this.cpu = cpu;
+            this.registers = registers;
+            this.memory = new RecordingMemory(memory);
+
+            // les deux processeurs possèdent les mêmes adresses, le bus
+            // reprend donc la table de routage du modèle sans la recalculer
+            Map<Component, Component> substitutes = new IdentityHashMap<>();
+            substitutes.put(MODEL_CPU, cpu);
+            substitutes.put(MODEL_MEMORY, this.memory);
+            Bus bus = new Bus(MODEL_BUS, substitutes);
+            cpu.attachTo(bus);
+            this.memory.attachTo(bus);
+        }
+
+        void cycle(long cycle) {
+            memory.cycle = cycle;
+            try {
+                ((Clocked) cpu).cycle(cycle);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * retourne PC, SP, A, F, B, C, D, E, H, L, IE, IF et le prochain
+         * cycle durant lequel le processeur évolue
+         */
+        long[] state(long cycle) {
+            int[] r = registers.get();
+            long[] state = new long[r.length + 3];
+            for (int i = 0; i < r.length; ++i)
+                state[i] = r[i];
+            state[r.length] = cpu.read(AddressMap.REG_IE);
+            state[r.length + 1] = cpu.read(AddressMap.REG_IF);
+            state[r.length + 2] = ((Clocked) cpu).nextCycle(cycle + 1);
+            return state;
+        }
+    }
+
+    /**
+     * remplit la mémoire au hasard, puis y écrit à l'adresse 0 un préambule
+     * qui donne aux registres et aux registres d'interruption des valeurs
+     * aléatoires, suivi de l'instruction donnée et de ses opérandes
+     */
+    private static int[] memory(Opcode opcode, Random random) {
+        int[] full = new int[0x10000];
+        for (int i = 0; i < full.length; ++i)
+            full[i] = random.nextInt(256);
+
+        int sp = random.nextInt(0x10000);
+        int a = random.nextInt(256), f = random.nextInt(16) << 4;
+        full[AF_ADDRESS] = f;
+        full[AF_ADDRESS + 1] = a;
+
+        int[] preamble = {
+                0x3E, random.nextInt(32), 0xE0, 0xFF, // LD A, n ; LDH (IE), A
+                0x3E, random.nextInt(32), 0xE0, 0x0F, // LD A, n ; LDH (IF), A
+                0x01, random.nextInt(256), random.nextInt(256), // LD BC, nn
+                0x11, random.nextInt(256), random.nextInt(256), // LD DE, nn
+                0x21, random.nextInt(256), random.nextInt(256), // LD HL, nn
+                0x31, AF_ADDRESS & 0xFF, AF_ADDRESS >>> 8, // LD SP, D100
+                0xF1, // POP AF
+                0x31, sp & 0xFF, sp >>> 8 }; // LD SP, nn
+        int pc = 0;
+        for (int b : preamble)
+            full[pc++] = b;
+        if (opcode.kind == Opcode.Kind.PREFIXED)
+            full[pc++] = 0xCB;
+        full[pc++] = opcode.encoding;
+        // les opérandes éventuelles sont les octets aléatoires qui suivent
+        return full;
+    }
+
+    @Test
+    void everyOpcodeBehavesLikeTheReferenceCpu() {
+        Random random = new Random(2018);
+        for (Opcode opcode : Opcode.values()) {
+            for (int s = 0; s < STATES_PER_OPCODE; ++s) {
+                int[] memory = memory(opcode, random);
+                Cpu cpu = new Cpu(null, false);
+                ReferenceCpu reference = new ReferenceCpu();
+                Machine actual = new Machine(cpu,
+                        cpu::_testGetPcSpAFBCDEHL, memory);
+                Machine expected = new Machine(reference,
+                        reference::_testGetPcSpAFBCDEHL, memory);
+
+                for (long c = 0; c < CYCLES; ++c) {
+                    expected.cycle(c);
+                    actual.cycle(c);
+                    String where = opcode + " (état " + s + "), cycle " + c;
+                    assertEquals(expected.failure != null,
+                            actual.failure != null, where);
+                    if (expected.failure != null)
+                        break;
+                    assertArrayEquals(expected.state(c), actual.state(c),
+                            where);
+                    assertEquals(expected.memory.trace.size(),
+                            actual.memory.trace.size(), where);
+                }
+                assertEquals(expected.memory.trace, actual.memory.trace);
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package ch.epfl.gameboj.movie;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ch.epfl.gameboj.GameBoy;
+import ch.epfl.gameboj.TestCartridges;
+import ch.epfl.gameboj.component.Joypad.Key;
+
+/**
+ * @author Alvaro Cauderan ( 282186)
+ * @author Gauthier Boeshertz (283192)
+ *
+ *         Vérifie qu'un film rejoué, après être passé par son format de
+ *         fichier, fait passer la gameboy par les mêmes états que lors de
+ *         l'enregistrement, et que la lecture d'un fichier invalide ou d'un
+ *         film d'une autre cartouche échoue.
+ */
+class MovieTest {
+
+    private static final int FRAMES = 60;
+    private static final long START = 200 * GameBoy.CYCLES_PER_FRAME;
+    // en-tête : identifiant, version, somme de contrôle, taille
+    private static final int HEADER_SIZE = 4 + 2 + 4 + 4;
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static GameBoy gameBoy(int seed) {
+        GameBoy gb = new GameBoy(TestCartridges.counterCartridge(seed));
+        gb.runUntil(START);
+        return gb;
+    }
+
+    /**
+     * enregistre un film de FRAMES images durant lequel les touches changent
+     * si keys est vrai, et retourne les états de la gameboy à la fin de
+     * chaque image
+     */
+    private static List<byte[]> record(MovieRecorder recorder, GameBoy gb,
+            boolean keys) {
+        List<byte[]> states = new ArrayList<>();
+        Key[] all = Key.values();
+        for (int f = 0; f < FRAMES; ++f) {
+            if (keys && f % 3 == 0)
+                recorder.keyPressed(all[f % all.length]);
+            if (keys && f % 5 == 4)
+                recorder.keyReleased(all[(f / 2) % all.length]);
+            recorder.runUntil(START + (f + 1) * GameBoy.CYCLES_PER_FRAME
+                    - 17 * f);
+            states.add(bytes(gb.snapshot()));
+        }
+        return states;
+    }
+
+    private static byte[] write(Movie movie) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        movie.write(out);
+        return out.toByteArray();
+    }
+
+    private static Movie read(byte[] bytes) throws IOException {
+        return Movie.read(new ByteArrayInputStream(bytes));
+    }
+
+    private static byte[] varint(long value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts)
+            out.write(p, 0, p.length);
+        return out.toByteArray();
+    }
+
+    @Test
+    void replayedMovieGoesThroughTheRecordedStates() throws IOException {
+        GameBoy gb = gameBoy(1);
+        MovieRecorder recorder = new MovieRecorder(gb,
+                7 * GameBoy.CYCLES_PER_FRAME);
+        List<byte[]> states = record(recorder, gb, true);
+        Movie movie = read(write(recorder.movie()));
+        assertEquals(FRAMES / 7 + 1, movie.keyframeCount());
+        assertTrue(movie.eventCount() > 0);
+
+        GameBoy replay = new GameBoy(TestCartridges.counterCartridge(1));
+        MoviePlayer player = new MoviePlayer(replay, movie);
+        assertEquals(START, replay.cycles());
+        for (int f = 0; f < FRAMES; ++f) {
+            player.runUntil(START + (f + 1) * GameBoy.CYCLES_PER_FRAME
+                    - 17 * f);
+            assertArrayEquals(states.get(f), bytes(replay.snapshot()),
+                    "image " + f);
+        }
+        assertTrue(player.finished());
+    }
+
+    @Test
+    void seekGivesTheRecordedStateInBothDirections() throws IOException {
+        GameBoy gb = gameBoy(2);
+        MovieRecorder recorder = new MovieRecorder(gb,
+                4 * GameBoy.CYCLES_PER_FRAME);
+        List<byte[]> states = record(recorder, gb, true);
+        GameBoy replay = new GameBoy(TestCartridges.counterCartridge(2));
+        MoviePlayer player = new MoviePlayer(replay,
+                read(write(recorder.movie())));
+
+        int[] frames = { 40, 10, 11, 59, 0, 33, 32 };
+        for (int f : frames) {
+            player.seek(START + (f + 1) * GameBoy.CYCLES_PER_FRAME - 17 * f);
+            assertArrayEquals(states.get(f), bytes(replay.snapshot()),
+                    "image " + f);
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> player.seek(START - 1));
+    }
+
+    @Test
+    void keysChangeTheRecordedStates() {
+        GameBoy withKeys = gameBoy(3);
+        GameBoy withoutKeys = gameBoy(3);
+        List<byte[]> a = record(new MovieRecorder(withKeys, 1_000_000),
+                withKeys, true);
+        List<byte[]> b = record(new MovieRecorder(withoutKeys, 1_000_000),
+                withoutKeys, false);
+        assertFalse(Arrays.equals(a.get(FRAMES - 1), b.get(FRAMES - 1)));
+    }
+
+    @Test
+    void playerRejectsAMovieOfAnotherCartridge() {
+        GameBoy gb = gameBoy(4);
+        Movie movie = new MovieRecorder(gb, 1_000_000).movie();
+        assertThrows(IllegalArgumentException.class,
+                () -> new MoviePlayer(
+                        new GameBoy(TestCartridges.counterCartridge(5)),
+                        movie));
+    }
+
+    @Test
+    void readRejectsMalformedFiles() throws IOException {
+        GameBoy gb = gameBoy(6);
+        MovieRecorder recorder = new MovieRecorder(gb,
+                3 * GameBoy.CYCLES_PER_FRAME);
+        record(recorder, gb, true);
+        byte[] valid = write(recorder.movie());
+        byte[] header = Arrays.copyOf(valid, HEADER_SIZE);
+        byte[] keyframe = { 0, (byte) Movie.KEYFRAME };
+        byte[] end = { 0, (byte) Movie.END };
+
+        // en-tête invalide ou film tronqué
+        byte[] badMagic = valid.clone();
+        badMagic[0] ^= 1;
+        assertThrows(IOException.class, () -> read(badMagic));
+        assertThrows(IOException.class,
+                () -> read(Arrays.copyOf(valid, valid.length - 10)));
+        assertThrows(IOException.class, () -> read(concat(header, end)));
+        // taille d'état clef négative, trop grande ou dépassant le fichier
+        assertThrows(IOException.class,
+                () -> read(concat(header, keyframe, varint(-1), end)));
+        assertThrows(IOException.class, () -> read(
+                concat(header, keyframe, varint(Integer.MAX_VALUE), end)));
+        assertThrows(IOException.class, () -> read(
+                concat(header, keyframe, varint(gb.snapshotSize()), end)));
+        // changement de touche avant le premier état clef
+        assertThrows(IOException.class,
+                () -> read(concat(header, new byte[] { 0, 1 }, end)));
+        assertEquals(recorder.movie().endCycle(), read(valid).endCycle());
+    }
+}